@@ -0,0 +1,102 @@
+package neat;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Activation functions of neurons, all approximating the steepened sigmoid 1/(1 + e^(-4.9x)) of the original paper.
+ * The approximations avoid Math.exp() and double precision, with a bounded error:
+ * 
+ * 	EXACT		the sigmoid calculated with Math.exp(), in double precision, rounded to float
+ * 	LOOKUP		linear interpolation in a table of the sigmoid every 1/256 between -4 and 4, and the ends of the table outside.
+ * 				Off by at most 5e-6 from EXACT.
+ * 	POLYNOMIAL	the sigmoid calculated in float, with e^(-4.9x) as 2^n * p(f), p being a degree 6 polynomial for 2^f
+ * 				on [-0.5, 0.5]. Off by at most 2e-7 from EXACT, about three float steps near 0.5, where a step is 6e-8.
+ * 
+ * Networks use DEFAULT unless given another one. It is EXACT, unless the system property neat.activation
+ * names another one, e.g. -Dneat.activation=LOOKUP. An unknown name is reported and EXACT is used instead.
+ * 
+ * @author hydrozoa
+ */
+public enum Activation {
+	
+	EXACT {
+		@Override
+		public float apply(float in) {
+			return exact(in);
+		}
+	},
+	
+	LOOKUP {
+		@Override
+		public float apply(float in) {
+			return lookup(in);
+		}
+	},
+	
+	POLYNOMIAL {
+		@Override
+		public float apply(float in) {
+			return polynomial(in);
+		}
+	};
+	
+	public static final Activation DEFAULT = parse(System.getProperty("neat.activation"));
+	
+	private static final float TABLE_RANGE = 4f;					// table covers [-TABLE_RANGE, TABLE_RANGE]
+	private static final float TABLE_STEPS = 256f;					// entries per unit
+	private static final float[] TABLE = table();
+	
+	private static final float LOG2E = 1.442695041f;
+	private static final float LN2 = 0.6931471806f;
+	
+	public abstract float apply(float in);
+	
+	/* Takes any float, and returns a value between 0 and 1. 0f returns 0.5f */
+	public static float exact(float in) {
+		return (float)(1f/( 1f + Math.exp(-4.9d*in)));
+	}
+	
+	public static float lookup(float in) {
+		float position = (Math.min(Math.max(in, -TABLE_RANGE), TABLE_RANGE) + TABLE_RANGE)*TABLE_STEPS;
+		int i = Math.min((int)position, TABLE.length - 2);
+		float fraction = position - i;
+		return TABLE[i] + fraction*(TABLE[i + 1] - TABLE[i]);
+	}
+	
+	public static float polynomial(float in) {
+		// e^(-4.9x) = 2^t, with t = n + f split into a whole number n and f in [-0.5, 0.5]
+		float t = Math.min(Math.max(-4.9f*LOG2E*in, -126f), 126f);
+		float n = (float)Math.floor(t + 0.5f);
+		float f = (t - n)*LN2;
+		// Taylor series of e^f, its error below 1.2e-7 for |f| <= ln(2)/2
+		float p = 1f + f*(1f + f*(1f/2 + f*(1f/6 + f*(1f/24 + f*(1f/120 + f*(1f/720))))));
+		float power = Float.intBitsToFloat(((int)n + 127) << 23);
+		return 1f/(1f + power*p);
+	}
+	
+	/**
+	 * @param name	name of an activation function in any case, or null for EXACT
+	 * @return		the named function, or EXACT with a warning if there is none of that name
+	 */
+	static Activation parse(String name) {
+		if (name == null) {
+			return EXACT;
+		}
+		try {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown activation function \"" + name + "\", using EXACT. Valid values are " + Arrays.toString(values()));
+			return EXACT;
+		}
+	}
+	
+	private static float[] table() {
+		int entries = (int)(2*TABLE_RANGE*TABLE_STEPS) + 1;
+		float[] table = new float[entries];
+		for (int i = 0; i < entries; i++) {
+			table[i] = exact(i/TABLE_STEPS - TABLE_RANGE);
+		}
+		return table;
+	}
+}
@@ -0,0 +1,16 @@
+package neat;
+
+/**
+ * Calculation of a network generated as a class of its own by {@link NetworkCompiler}.
+ * Public only so classes defined by other class loaders can implement it.
+ * 
+ * @author hydrozoa
+ */
+public interface CompiledNetwork {
+	
+	/**
+	 * @param input		one value per input neuron
+	 * @param output	receives one value per output neuron
+	 */
+	void calculate(float[] input, float[] output);
+}
@@ -1,10 +1,15 @@
 package neat;
 
 /**
+ * A connection gene is either standalone, holding its own values, or a view of a gene stored in a Genome,
+ * as returned by Genome.getConnectionGenes(). Changing a view changes the genome.
+ * 
  * @author hydrozoa
  */
 public class ConnectionGene {
 	
+	private Genome genome;		// genome holding this gene, null if standalone
+	
 	private int inNode;
 	private int outNode;
 	private float weight;
@@ -19,36 +24,62 @@ public class ConnectionGene {
 		this.innovation = innovation;
 	}
 	
+	/**
+	 * Makes a standalone copy, also of a view.
+	 */
 	public ConnectionGene(ConnectionGene toBeCopied) {
-		this.inNode = toBeCopied.inNode;
-		this.outNode = toBeCopied.outNode;
-		this.weight = toBeCopied.weight;
-		this.expressed = toBeCopied.expressed;
+		this.inNode = toBeCopied.getInNode();
+		this.outNode = toBeCopied.getOutNode();
+		this.weight = toBeCopied.getWeight();
+		this.expressed = toBeCopied.isExpressed();
 		this.innovation = toBeCopied.innovation;
 	}
+	
+	/**
+	 * Makes a view of a gene the genome has.
+	 */
+	ConnectionGene(Genome genome, int innovation) {
+		this.genome = genome;
+		this.innovation = innovation;
+	}
+	
+	/**
+	 * @return	position of this gene among the genes of the genome
+	 */
+	private int index() {
+		return genome.connectionIndex(innovation);
+	}
 
 	public int getInNode() {
-		return inNode;
+		return genome == null ? inNode : genome.inNode(index());
 	}
 
 	public int getOutNode() {
-		return outNode;
+		return genome == null ? outNode : genome.outNode(index());
 	}
 
 	public float getWeight() {
-		return weight;
+		return genome == null ? weight : genome.weight(index());
 	}
 	
 	public void setWeight(float newWeight) {
-		this.weight = newWeight;
+		if (genome == null) {
+			this.weight = newWeight;
+		} else {
+			genome.setWeight(index(), newWeight);
+		}
 	}
 
 	public boolean isExpressed() {
-		return expressed;
+		return genome == null ? expressed : genome.isExpressed(index());
 	}
 	
 	public void disable() {
-		expressed = false;
+		if (genome == null) {
+			expressed = false;
+		} else {
+			genome.disable(index());
+		}
 	}
 
 	public int getInnovation() {
@@ -56,7 +87,7 @@ public class ConnectionGene {
 	}
 	
 	public ConnectionGene copy() {
-		return new ConnectionGene(inNode, outNode, weight, expressed, innovation);
+		return new ConnectionGene(getInNode(), getOutNode(), getWeight(), isExpressed(), innovation);
 	}
 	
 }
@@ -1,16 +1,19 @@
 package neat;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Used for keeping track of innovation numbers in genomes as they are evolving. 
  * This utility will always return an integer that is higher than the previous.
+ * Safe to use from several threads at once, e.g. while breeding in parallel.
  * 
  * @author hydrozoa
  */
 public class Counter {
 	
-	private int currentInnovation = 0;
+	private AtomicInteger currentInnovation = new AtomicInteger();
 	
 	public int getInnovation() {
-		return currentInnovation++;
+		return currentInnovation.getAndIncrement();
 	}
 }
@@ -0,0 +1,21 @@
+package neat;
+
+/**
+ * Counts filled in by Genome while comparing two genomes. A workspace may only be used by one thread at a time,
+ * so threads comparing genomes concurrently either pass their own or rely on the per-thread one Genome keeps.
+ * 
+ * @author hydrozoa
+ */
+public class DistanceWorkspace {
+	
+	int matching;					// genes both genomes have, nodes and connections
+	int disjoint;					// genes only one genome has, below the other's highest innovation number
+	int excess;						// genes only one genome has, above the other's highest innovation number
+	
+	int matchingConnections;		// connection genes both genomes have
+	float weightDifference;			// sum of weight differences of matching connection genes
+	
+	float[] weights1 = new float[WeightKernels.BLOCK];		// weights of matching connection genes not added to weightDifference yet
+	float[] weights2 = new float[WeightKernels.BLOCK];
+	int pending;
+}
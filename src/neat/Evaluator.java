@@ -1,11 +1,14 @@
 package neat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * @author hydrozoa
@@ -20,10 +23,19 @@ public abstract class Evaluator {
 	protected List<FitnessGenome> evaluatedGenomes;		// stores all genomes with fitness of current generation (used during evaluation). Incidentally, this list contains results from previous generation.
 	protected FitnessGenome fittestGenome;				// fittest genome w/ score form last run generation
 	
-	protected List<FitnessGenome> lastGenerationResults;	// contains a sorted list of the previous generations genomes
+	protected List<FitnessGenome> lastGenerationResults;	// contains the previous generations genomes, sorted by getLastGenerationResults() when first needed
+	private boolean resultsSorted;
+	
+	protected List<Species> species = new ArrayList<>();	// species of the last evaluated generation, if speciating
 	
 	protected Counter nodeInnovation;
 	protected Counter connectionInnovation;
+	protected InnovationRegistry innovations;		// structural mutations of the generation being bred
+	
+	private ForkJoinPool pool;						// scores and breeds genomes concurrently if not null
+	
+	private MappedGeneSlab[] regions;				// off-heap slabs that generations are packed into in turns
+	private int region;								// slab of the current generation
 	
 	public Evaluator(NEATConfiguration configuration, GenesisGenomeProvider generator, Counter nodeInnovation, Counter connectionInnovation) {
 		this.config = configuration;
@@ -34,13 +46,14 @@ public abstract class Evaluator {
 			genomes.add(g);
 		}
 		
-		evaluatedGenomes = new LinkedList<>();
-		nextGeneration = new LinkedList<>();
+		evaluatedGenomes = new ArrayList<>(configuration.getPopulationSize());
+		nextGeneration = new ArrayList<>(configuration.getPopulationSize());
 		
-		lastGenerationResults = new LinkedList<>();
+		lastGenerationResults = new ArrayList<>(configuration.getPopulationSize());
 		
 		this.nodeInnovation = nodeInnovation;
 		this.connectionInnovation = connectionInnovation;
+		this.innovations = new InnovationRegistry(nodeInnovation, connectionInnovation);
 	}
 	
 	public void evaluateGeneration(Random r) {
@@ -49,77 +62,406 @@ public abstract class Evaluator {
             evaluatedGenomes.clear();
 
             /* Score each genome */
+            float[] scores = scoreGenomes(new SplittableRandom(r.nextLong()));
             for (int i = 0; i < genomes.size(); i++) {
                     Genome g = genomes.get(i);
-                    FitnessGenome fitnessGenome = new FitnessGenome(g, evaluateGenome(g));
+                    FitnessGenome fitnessGenome = new FitnessGenome(g, scores[i]);
                     evaluatedGenomes.add(fitnessGenome);
             }
 
-            /* Sort evaluated genomes by fitness */
-            Collections.sort(evaluatedGenomes, comparator);
-            Collections.reverse(evaluatedGenomes);
-
+            // Results are only sorted if asked for
             lastGenerationResults.addAll(evaluatedGenomes);
+            resultsSorted = false;
 
-            fittestGenome = evaluatedGenomes.get(0);
-
-            /* Kill off worst 9/10 of genomes */
-            int cutoffIndex = evaluatedGenomes.size() / 10;
-            Iterator<FitnessGenome> it = evaluatedGenomes.iterator();
-            int index = 0;
-            while (it.hasNext()) {
-                    it.next();
-                    if (index > cutoffIndex) {
-                            it.remove();
-                    }
-                    index++;
-            }
+            fittestGenome = fittest(evaluatedGenomes);
 
             /* Find next generation population */
             nextGeneration.clear();
 
             // First, take champion of this generation and pass on to next generation
-            Genome champion = evaluatedGenomes.get(0).genome;
-            nextGeneration.add(champion);
+            Genome[] children = new Genome[config.getPopulationSize()];
+            children[0] = fittestGenome.genome;
+
+            // Genomes that each child is bred from, unless it's already filled in
+            List<List<FitnessGenome>> parents = new ArrayList<>(Collections.nCopies(children.length, null));
+
+            if (config.SPECIATION) {
+                    /* Sort evaluated genomes by fitness, as species are filled fittest first */
+                    Collections.sort(evaluatedGenomes, comparator);
+                    Collections.reverse(evaluatedGenomes);
+
+                    speciate(children, parents, r);
+            } else {
+                    /* Kill off worst 9/10 of genomes, unless parents are picked by tournament */
+                    if (config.TOURNAMENT_SIZE <= 1) {
+                            int survivors = Math.min(evaluatedGenomes.size(), evaluatedGenomes.size() / 10 + 1);
+                            FitnessGenome[] ranked = evaluatedGenomes.toArray(new FitnessGenome[0]);
+                            select(ranked, survivors);
+                            evaluatedGenomes.clear();
+                            evaluatedGenomes.addAll(Arrays.asList(ranked).subList(0, survivors));
+                    }
+                    for (int i = 1; i < children.length; i++) {
+                            parents.set(i, evaluatedGenomes);
+                    }
+            }
 
-            // Next, fill in next generation by random mating and mutation
-            while (nextGeneration.size() < config.getPopulationSize()) {
-                if (r.nextFloat() > config.ASEXUAL_REPRODUCTION_RATE) { // sexual reproduction
-                        FitnessGenome parent1 = evaluatedGenomes.get(r.nextInt(evaluatedGenomes.size()));
-                        FitnessGenome parent2 = evaluatedGenomes.get(r.nextInt(evaluatedGenomes.size()));
-                        Genome child;
-                        if (parent1.fitness > parent2.fitness) {
-                                child = Genome.crossover(parent1.genome, parent2.genome, r, config.DISABLED_GENE_INHERITING_CHANCE);
-                        } else {
-                                child = Genome.crossover(parent2.genome, parent1.genome, r, config.DISABLED_GENE_INHERITING_CHANCE);
-                        }
-                        if (r.nextFloat() < config.MUTATION_RATE) {
-                                child.mutation(config.PERTURBING_RATE, r);
-                        }
-                        if (r.nextFloat() < config.ADD_CONNECTION_RATE) {	// add mutation from adding connection and nodes
-                                child.addConnectionMutation(r, connectionInnovation, 100);
-                        }
-                        if (r.nextFloat() < config.ADD_NODE_RATE) {	// add mutation from adding node
-                                child.addNodeMutation(r, connectionInnovation, nodeInnovation);
-                        }
-                        nextGeneration.add(child);
-                } else {												// asexual reproduction
-                        FitnessGenome parent = evaluatedGenomes.get(r.nextInt(evaluatedGenomes.size()));
-                        Genome child = new Genome(parent.genome);
-                        child.mutation(config.PERTURBING_RATE, r);
-                        nextGeneration.add(child);
-                }
+            // Next, fill in next generation by random mating and mutation.
+            // Seeds are drawn in order so each child has the same generator whatever thread breeds it.
+            // Children making the same structural mutation get the same innovation numbers.
+            innovations.clear();
+            long[] seeds = new long[children.length];
+            for (int i = 1; i < seeds.length; i++) {
+                    seeds[i] = r.nextLong();
+            }
+            forEach(1, children.length, i -> {
+                    if (children[i] == null) {
+                            children[i] = reproduce(new Random(seeds[i]), parents.get(i));
+                    }
+            });
+            if (config.PACKED_GENOMES || config.OFF_HEAP_GENOMES) {
+                    pack(children);
             }
+            Collections.addAll(nextGeneration, children);
 
             // Transfer next generation to current generation
             genomes.clear();
-            for (int i = 0; i < nextGeneration.size(); i++) {
-                    genomes.add(nextGeneration.get(i));
-            }
+            genomes.addAll(nextGeneration);
+	}
+	
+	/**
+	 * Breeds one child from surviving genomes. Only reads the parents, so several children can be bred at once.
+	 * 
+	 * @param r			Random instance only used for this child
+	 * @param parents	surviving genomes the parents are picked from
+	 * @return	new genome for the next generation
+	 */
+	private Genome reproduce(Random r, List<FitnessGenome> parents) {
+		if (r.nextFloat() > config.ASEXUAL_REPRODUCTION_RATE) { // sexual reproduction
+			FitnessGenome parent1 = pick(r, parents);
+			FitnessGenome parent2 = pick(r, parents);
+			Genome child;
+			if (parent1.fitness > parent2.fitness) {
+				child = Genome.crossover(parent1.genome, parent2.genome, r, config.DISABLED_GENE_INHERITING_CHANCE);
+			} else {
+				child = Genome.crossover(parent2.genome, parent1.genome, r, config.DISABLED_GENE_INHERITING_CHANCE);
+			}
+			if (r.nextFloat() < config.MUTATION_RATE) {
+				child.mutation(config.PERTURBING_RATE, r);
+			}
+			if (r.nextFloat() < config.ADD_CONNECTION_RATE) {	// add mutation from adding connection and nodes
+				child.addConnectionMutation(r, innovations);
+			}
+			if (r.nextFloat() < config.ADD_NODE_RATE) {	// add mutation from adding node
+				child.addNodeMutation(r, innovations);
+			}
+			return child;
+		} else {												// asexual reproduction
+			FitnessGenome parent = pick(r, parents);
+			Genome child = new Genome(parent.genome);
+			child.mutation(config.PERTURBING_RATE, r);
+			return child;
+		}
+	}
+	
+	/**
+	 * Picks a parent at random, or the fittest of a tournament of TOURNAMENT_SIZE genomes picked at random.
+	 */
+	private FitnessGenome pick(Random r, List<FitnessGenome> parents) {
+		FitnessGenome best = parents.get(r.nextInt(parents.size()));
+		for (int i = 1; i < config.TOURNAMENT_SIZE; i++) {
+			FitnessGenome other = parents.get(r.nextInt(parents.size()));
+			if (other.fitness > best.fitness) {
+				best = other;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @return	fittest of the genomes, the last one of them if several are equally fit
+	 */
+	private static FitnessGenome fittest(List<FitnessGenome> genomes) {
+		FitnessGenome best = genomes.get(0);
+		for (FitnessGenome fg : genomes) {
+			if (fg.fitness >= best.fitness) {
+				best = fg;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Quickselect, moving the fittest genomes to the front in no particular order. Takes O(n) on average.
+	 * 
+	 * @param count	no. of genomes to move to the front
+	 */
+	private static void select(FitnessGenome[] genomes, int count) {
+		int from = 0;
+		int to = genomes.length - 1;
+		while (from < to) {
+			float pivot = genomes[(from + to) >>> 1].fitness;
+			int i = from;
+			int j = to;
+			while (i <= j) {
+				while (genomes[i].fitness > pivot) {
+					i++;
+				}
+				while (genomes[j].fitness < pivot) {
+					j--;
+				}
+				if (i <= j) {
+					FitnessGenome tmp = genomes[i];
+					genomes[i] = genomes[j];
+					genomes[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			// [from, j] are at least as fit as the pivot and [i, to] at most as fit
+			if (count - 1 <= j) {
+				to = j;
+			} else if (count - 1 >= i) {
+				from = i;
+			} else {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Moves the genes of a new generation into one slab, giving each child its own range of it.
+	 * The slab is sized once before any child is moved, so children are moved concurrently if a pool was set.
+	 * Off the heap, the new generation takes the place of the generation before the current one, which is no longer used,
+	 * so that generation's slab is closed.
+	 */
+	private void pack(Genome[] children) {
+		int[] connectionStarts = new int[children.length];
+		int[] nodeStarts = new int[children.length];
+		int connections = 0;
+		int nodes = 0;
+		for (int i = 0; i < children.length; i++) {
+			connectionStarts[i] = connections;
+			nodeStarts[i] = nodes;
+			connections += children[i].connectionCount();
+			nodes += children[i].nodeCount();
+		}
+		
+		GeneSlab slab;
+		if (config.OFF_HEAP_GENOMES) {
+			if (regions == null) {
+				regions = new MappedGeneSlab[2];
+			}
+			region = 1 - region;
+			if (regions[region] != null) {
+				regions[region].close();
+			}
+			regions[region] = new MappedGeneSlab();
+			regions[region].reserve(connections, nodes);
+			slab = regions[region];
+		} else {
+			slab = new HeapGeneSlab(connections, nodes);
+		}
+		forEach(0, children.length, i -> {
+			children[i].pack(slab, connectionStarts[i], nodeStarts[i]);
+		});
+	}
+	
+	/**
+	 * Scores every genome of the current generation, concurrently if a pool was set.
+	 * Each genome gets its own generator split off the generation's in order, so scores
+	 * don't depend on how many threads there are or which thread scores which genome.
+	 * 
+	 * @param generationRandom	generator that the generators of the genomes are split from
+	 * @return					score of each genome, in the same order as genomes
+	 */
+	private float[] scoreGenomes(SplittableRandom generationRandom) {
+		float[] scores = new float[genomes.size()];
+		SplittableRandom[] randoms = new SplittableRandom[genomes.size()];
+		for (int i = 0; i < randoms.length; i++) {
+			randoms[i] = generationRandom.split();
+		}
+		
+		prepareScoring(genomes);
+		forEach(0, scores.length, i -> {
+			scores[i] = evaluateGenome(genomes.get(i), randoms[i]);
+		});
+		return scores;
+	}
+	
+	/**
+	 * Runs an action for each index, concurrently on the pool if one was set.
+	 * 
+	 * @param from	first index, inclusive
+	 * @param to	last index, exclusive
+	 */
+	private void forEach(int from, int to, IntConsumer action) {
+		if (pool == null) {
+			for (int i = from; i < to; i++) {
+				action.accept(i);
+			}
+		} else {
+			// parallel streams run in the pool that invokes them
+			pool.submit(() -> IntStream.range(from, to).parallel().forEach(action)).join();
+		}
+	}
+	
+	/**
+	 * Sorts the evaluated genomes into species and decides how many children each species gets.
+	 * Each genome joins the first species whose representative it is compatible with, or founds a new one.
+	 * Fitness is shared within a species, so a species' share of the offspring is proportional to the
+	 * average fitness of its members rather than to how many members it has.
+	 * 
+	 * @param children	next generation, with the overall champion at index 0. Receives unchanged copies of species champions.
+	 * @param parents	receives the surviving members of a species for each child that species has to breed
+	 */
+	private void speciate(Genome[] children, List<List<FitnessGenome>> parents, Random r) {
+		for (Species s : species) {
+			s.getMembers().clear();
+		}
+		
+		// compare every genome to last generation's species at once
+		int existing = species.size();
+		int[] found = new int[evaluatedGenomes.size()];
+		forEach(0, found.length, i -> {
+			found[i] = findSpecies(evaluatedGenomes.get(i).genome, 0, existing);
+		});
+		
+		// species founded this generation are only known once the genomes before them are placed
+		for (int i = 0; i < found.length; i++) {
+			FitnessGenome fg = evaluatedGenomes.get(i);
+			int index = found[i] >= 0 ? found[i] : findSpecies(fg.genome, existing, species.size());
+			if (index < 0) {
+				index = species.size();
+				species.add(new Species(fg.genome));
+			}
+			species.get(index).getMembers().add(fg);
+		}
+		species.removeIf(s -> s.getMembers().isEmpty());
+		
+		/* Fitness sharing, shifted so that the least fit genome counts as 0 */
+		float lowest = evaluatedGenomes.get(evaluatedGenomes.size() - 1).fitness;
+		float totalAdjusted = 0;
+		for (Species s : species) {
+			float adjusted = 0;
+			for (FitnessGenome fg : s.getMembers()) {
+				adjusted += (fg.fitness - lowest) / s.getMembers().size();
+			}
+			s.setAdjustedFitness(adjusted);
+			totalAdjusted += adjusted;
+		}
+		
+		/* Offspring quotas, rounded down, with the remaining children going to the largest remainders */
+		int slots = children.length - 1;
+		int[] quotas = new int[species.size()];
+		double[] remainders = new double[species.size()];
+		int assigned = 0;
+		for (int i = 0; i < quotas.length; i++) {
+			Species s = species.get(i);
+			double share = totalAdjusted > 0 ? (double)s.getAdjustedFitness() / totalAdjusted : (double)s.getMembers().size() / evaluatedGenomes.size();
+			quotas[i] = (int)(share * slots);
+			remainders[i] = share * slots - quotas[i];
+			assigned += quotas[i];
+		}
+		while (assigned < slots) {
+			int largest = 0;
+			for (int i = 1; i < remainders.length; i++) {
+				if (remainders[i] > remainders[largest]) {
+					largest = i;
+				}
+			}
+			quotas[largest]++;
+			remainders[largest] = -1;
+			assigned++;
+		}
+		// the adjusted fitnesses are rounded sums, so the shares can add up to a little more than 1
+		while (assigned > slots) {
+			int smallest = -1;
+			for (int i = 0; i < remainders.length; i++) {
+				if (quotas[i] > 0 && (smallest < 0 || remainders[i] < remainders[smallest])) {
+					smallest = i;
+				}
+			}
+			quotas[smallest]--;
+			remainders[smallest] = Double.MAX_VALUE;
+			assigned--;
+		}
+		
+		/* Fill in children species by species */
+		int child = 1;
+		for (int i = 0; i < quotas.length; i++) {
+			List<FitnessGenome> members = species.get(i).getMembers();
+			int quota = quotas[i];
+			
+			// champions of big enough species are kept unchanged, the overall champion already is
+			Genome champion = members.get(0).genome;
+			if (quota > 0 && members.size() >= config.CHAMPION_SPECIES_SIZE && champion != children[0]) {
+				children[child++] = new Genome(champion);
+				quota--;
+			}
+			
+			// same cutoff as without speciation, keeping the fittest tenth
+			List<FitnessGenome> survivors = config.TOURNAMENT_SIZE > 1 ? members : members.subList(0, members.size() / 10 + 1);
+			for (; quota > 0; quota--) {
+				parents.set(child++, survivors);
+			}
+		}
+		
+		// a random member represents each species in the next generation
+		for (Species s : species) {
+			s.setRepresentative(s.getMembers().get(r.nextInt(s.getMembers().size())).genome);
+		}
+	}
+	
+	/**
+	 * @param from	index of the first species to compare to
+	 * @param to	index after the last species to compare to
+	 * @return		index of the first species the genome is compatible with, or -1 if there is none
+	 */
+	private int findSpecies(Genome genome, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (Genome.isCompatible(genome, species.get(i).getRepresentative(), config.C1, config.C2, config.C3, config.DT)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Called on the calling thread before the genomes of a generation are scored, so that work can be done for all of
+	 * them at once, e.g. calculating their networks in a NetworkBatch. Does nothing by default.
+	 * 
+	 * @param genomes	genomes about to be scored
+	 */
+	protected void prepareScoring(List<Genome> genomes) {
 	}
 	
 	public abstract float evaluateGenome(Genome g);
 	
+	/**
+	 * Scores a genome, given a generator of its own. Called concurrently for different genomes if a pool was set.
+	 * By default the generator is ignored and evaluateGenome(Genome) is called.
+	 * 
+	 * @param g			genome to score
+	 * @param random	generator that only this genome uses in this generation
+	 */
+	public float evaluateGenome(Genome g, SplittableRandom random) {
+		return evaluateGenome(g);
+	}
+	
+	/**
+	 * @return	Species of the last evaluated generation, empty if speciation is turned off
+	 */
+	public List<Species> getSpecies() {
+		return species;
+	}
+	
+	/**
+	 * @param pool	pool that scores and breeds the genomes of each generation concurrently, or null to do it one by one on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
 	/**
 	 * @return Fittest genome from the previous generation.
 	 */
@@ -139,9 +481,14 @@ public abstract class Evaluator {
 	}
 	
 	/**
-	 * @return	Results from previously evaluated generation, or null if no evaluation has taken place.
+	 * @return	Results from previously evaluated generation, fittest first, or null if no evaluation has taken place.
 	 */
 	public Iterable<FitnessGenome> getLastGenerationResults() {
+		if (!resultsSorted) {
+			Collections.sort(lastGenerationResults, comparator);
+			Collections.reverse(lastGenerationResults);
+			resultsSorted = true;
+		}
 		return lastGenerationResults;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package neat;
+
+/**
+ * Genes of one or more genomes, as fixed-width records addressed by position. Each genome uses a range of
+ * connection records and a range of node records, see Genome.
+ * 
+ * A connection record is two longs and a float: the innovation number (high 32 bits) with whether the gene
+ * is expressed (bit 0), the in node id (high 32 bits) with the out node id (low 32 bits), and the weight.
+ * A node record is the id and the ordinal of the node's type, as a byte.
+ * 
+ * @author hydrozoa
+ */
+abstract class GeneSlab {
+	
+	private static final long EXPRESSED = 1L;
+	
+	/* Records, stored by each kind of slab */
+	
+	abstract int connectionCapacity();
+	
+	abstract int nodeCapacity();
+	
+	abstract long gene(int connection);
+	
+	abstract void setGene(int connection, long gene);
+	
+	abstract long link(int connection);
+	
+	abstract void setLink(int connection, long link);
+	
+	abstract float weight(int connection);
+	
+	abstract void setWeight(int connection, float weight);
+	
+	abstract int nodeId(int node);
+	
+	abstract byte nodeType(int node);
+	
+	abstract void setNode(int node, int id, byte type);
+	
+	/* Fields of the records */
+	
+	final int innovation(int connection) {
+		return (int)(gene(connection) >>> 32);
+	}
+	
+	final boolean isExpressed(int connection) {
+		return (gene(connection) & EXPRESSED) != 0;
+	}
+	
+	final void setExpressed(int connection, boolean expressed) {
+		long gene = gene(connection);
+		setGene(connection, expressed ? gene | EXPRESSED : gene & ~EXPRESSED);
+	}
+	
+	final int inNode(int connection) {
+		return (int)(link(connection) >>> 32);
+	}
+	
+	final int outNode(int connection) {
+		return (int)link(connection);
+	}
+	
+	final void setConnection(int connection, int innovation, int inNode, int outNode, float weight, boolean expressed) {
+		setGene(connection, ((long)innovation << 32) | (expressed ? EXPRESSED : 0));
+		setLink(connection, ((long)inNode << 32) | (outNode & 0xFFFFFFFFL));
+		setWeight(connection, weight);
+	}
+	
+	/**
+	 * Copies connection records from a slab of any kind, which may be this one with the ranges overlapping.
+	 */
+	void copyConnections(GeneSlab source, int from, int to, int count) {
+		if (source == this && from < to) {
+			for (int i = count - 1; i >= 0; i--) {
+				copyConnection(source, from + i, to + i);
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				copyConnection(source, from + i, to + i);
+			}
+		}
+	}
+	
+	/**
+	 * Copies node records from a slab of any kind, which may be this one with the ranges overlapping.
+	 */
+	void copyNodes(GeneSlab source, int from, int to, int count) {
+		if (source == this && from < to) {
+			for (int i = count - 1; i >= 0; i--) {
+				setNode(to + i, source.nodeId(from + i), source.nodeType(from + i));
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				setNode(to + i, source.nodeId(from + i), source.nodeType(from + i));
+			}
+		}
+	}
+	
+	/**
+	 * Mutates the weights of a range of connections, see WeightKernels.mutate().
+	 */
+	void mutateWeights(int from, float[] uniform, float[] gaussian, int count, float perturbing) {
+		for (int i = 0; i < count; i++) {
+			setWeight(from + i, WeightKernels.mutated(weight(from + i), uniform[i], gaussian[i], perturbing));
+		}
+	}
+	
+	private void copyConnection(GeneSlab source, int from, int to) {
+		setGene(to, source.gene(from));
+		setLink(to, source.link(from));
+		setWeight(to, source.weight(from));
+	}
+}
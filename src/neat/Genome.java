@@ -1,388 +1,772 @@
 package neat;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
 
 /**
+ * Genes are kept as fixed-width records in a GeneSlab, sorted by innovation number (connections) and id (nodes),
+ * so comparing or crossing two genomes is a single merge of their records.
+ * The maps returned by getConnectionGenes() and getNodeGenes() are views of these records.
+ *
+ * A genome has a slab of its own while it is bred and mutated. The Evaluator can then pack a whole generation
+ * into one shared slab (see NEATConfiguration.PACKED_GENOMES and OFF_HEAP_GENOMES), leaving each genome a small object pointing into it.
+ * A packed genome can still be changed, and moves to a slab of its own if it has to grow.
+ *
  * @author hydrozoa
  */
 public class Genome {
-	
+
     public int fitness;
-    
-    private static List<Integer> tmpList1 = new ArrayList<Integer>();
-    private static List<Integer> tmpList2 = new ArrayList<Integer>();
 
-    private Map<Integer, ConnectionGene> connections;		// connection genes mapped by their innovation number
-    private Map<Integer, NodeGene> nodes;					// node genes mapped by their ids
+    private static final ThreadLocal<DistanceWorkspace> workspaces = ThreadLocal.withInitial(DistanceWorkspace::new);	// used by comparisons without a workspace of their own
+
+    private static final ThreadLocal<float[][]> mutationBlocks = ThreadLocal.withInitial(() -> new float[2][WeightKernels.BLOCK]);	// random numbers for mutating a block of weights
+
+    private static final NodeGene.TYPE[] TYPES = NodeGene.TYPE.values();	// node types by the ordinal stored in a slab
+
+    private GeneSlab slab;				// holds the genes, from connectionStart and nodeStart on
+    private boolean packed;				// whether the slab is shared with other genomes, so the genes can't grow in place
+    private int connectionStart;
+    private int connectionCount;		// connection genes, ascending by innovation number
+    private int nodeStart;
+    private int nodeCount;				// node genes, ascending by id
+
+    private Topology topology;			// built by the first connection mutation, copied with the genome and dropped by pack()
+    private volatile IntIntMap positions;	// built by nodePositions(), shared with copies until a node is added, and dropped by pack()
 
     public Genome() {
-        
-        nodes = new HashMap<>();
-        connections = new HashMap<>();
+        this(8, 8);
     }
 
     public Genome(Genome toBeCopied) {
-        
-        nodes = new HashMap<>();
-        connections = new HashMap<>();
-
-        for (Integer index : toBeCopied.getNodeGenes().keySet()) {
-                nodes.put(index, new NodeGene(toBeCopied.getNodeGenes().get(index)));
+        this(capacity(toBeCopied.connectionCount), capacity(toBeCopied.nodeCount));
+
+        slab.copyConnections(toBeCopied.slab, toBeCopied.connectionStart, 0, toBeCopied.connectionCount);
+        connectionCount = toBeCopied.connectionCount;
+        slab.copyNodes(toBeCopied.slab, toBeCopied.nodeStart, 0, toBeCopied.nodeCount);
+        nodeCount = toBeCopied.nodeCount;
+        positions = toBeCopied.positions;
+        if (toBeCopied.topology != null) {
+                topology = new Topology(toBeCopied.topology);
         }
+    }
 
-        for (Integer index : toBeCopied.getConnectionGenes().keySet()) {
-                connections.put(index, new ConnectionGene(toBeCopied.getConnectionGenes().get(index)));
-        }
+    private Genome(int connectionCapacity, int nodeCapacity) {
+        slab = new HeapGeneSlab(connectionCapacity, nodeCapacity);
+    }
+
+    /**
+     * @return	Capacity of a slab of its own for a genome with a number of genes, leaving room for a few mutations
+     */
+    private static int capacity(int genes) {
+            return Math.max(8, genes + 4);
+    }
+
+    /**
+     * Makes sure there is room for more genes, moving them to a bigger slab of the genome's own if needed.
+     */
+    private void reserve(int connections, int nodes) {
+            if (!packed && slab.connectionCapacity() >= connections && slab.nodeCapacity() >= nodes) {
+                    return;
+            }
+            GeneSlab grown = new HeapGeneSlab(Math.max(8, connections * 2), Math.max(8, nodes * 2));
+            grown.copyConnections(slab, connectionStart, 0, connectionCount);
+            grown.copyNodes(slab, nodeStart, 0, nodeCount);
+            slab = grown;
+            packed = false;
+            connectionStart = 0;
+            nodeStart = 0;
+    }
+
+    /**
+     * Moves the genes to a range of a slab shared with other genomes, which must not overlap the ranges of the others.
+     * The topology is dropped to save the heap that packing is for, and built again if the genome is mutated.
+     */
+    void pack(GeneSlab target, int connectionStart, int nodeStart) {
+            target.copyConnections(slab, this.connectionStart, connectionStart, connectionCount);
+            target.copyNodes(slab, this.nodeStart, nodeStart, nodeCount);
+            slab = target;
+            packed = true;
+            this.connectionStart = connectionStart;
+            this.nodeStart = nodeStart;
+            topology = null;
+            positions = null;
     }
 
     public void addNodeGene(NodeGene gene) {
-            nodes.put(gene.getId(), gene);
+            int index = nodeIndex(gene.getId());
+            if (index < 0) {
+                    index = -index - 1;
+                    reserve(connectionCount, nodeCount + 1);
+                    slab.copyNodes(slab, nodeStart + index, nodeStart + index + 1, nodeCount - index);
+                    nodeCount++;
+                    positions = null;
+
+                    // the topology refers to nodes by position, so it can only follow a hidden node added at the end
+                    if (topology != null) {
+                            if (index == nodeCount - 1 && gene.getType() == NodeGene.TYPE.HIDDEN) {
+                                    topology.addHiddenNode();
+                            } else {
+                                    topology = null;
+                            }
+                    }
+            } else {
+                    topology = null;
+            }
+            slab.setNode(nodeStart + index, gene.getId(), (byte)gene.getType().ordinal());
     }
 
     public void addConnectionGene(ConnectionGene gene) {
-            connections.put(gene.getInnovation(), gene);
+            addConnection(gene.getInnovation(), gene.getInNode(), gene.getOutNode(), gene.getWeight(), gene.isExpressed());
+            topology = null;
+    }
+
+    /**
+     * Adds a connection gene, or overwrites the one with the same innovation number.
+     * Appending a gene with a higher innovation number than all others costs O(1).
+     */
+    private void addConnection(int innovation, int inNode, int outNode, float weight, boolean isExpressed) {
+            int index;
+            if (connectionCount == 0 || innovation(connectionCount - 1) < innovation) {
+                    index = connectionCount;
+            } else {
+                    index = connectionIndex(innovation);
+            }
+            if (index < 0 || index == connectionCount) {
+                    index = index < 0 ? -index - 1 : index;
+                    reserve(connectionCount + 1, nodeCount);
+                    slab.copyConnections(slab, connectionStart + index, connectionStart + index + 1, connectionCount - index);
+                    connectionCount++;
+            }
+            slab.setConnection(connectionStart + index, innovation, inNode, outNode, weight, isExpressed);
     }
 
+    /**
+     * @return	Connection genes mapped by their innovation number, iterated in ascending order.
+     * 			Genes are views of this genome, so setting a weight or disabling a gene changes the genome.
+     */
     public Map<Integer, ConnectionGene> getConnectionGenes() {
-            return connections;
+            return new ConnectionView();
     }
 
+    /**
+     * @return	Node genes mapped by their ids, iterated in ascending order.
+     */
     public Map<Integer, NodeGene> getNodeGenes() {
-            return nodes;
+            return new NodeView();
     }
 
-    public void mutation(float PROBABILITY_PERTURBING, Random r) {
-            for(ConnectionGene con : connections.values()) {
-                    if (r.nextFloat() < PROBABILITY_PERTURBING) { 			// uniformly perturbing weights
-                            con.setWeight(con.getWeight()*(float)r.nextGaussian()); // nudge the weight a random amount of a normal distribution with peak=0.0 and deviation=1
-                    } else { 												// assigning new weight
-                            con.setWeight(r.nextFloat()*4f-2f);	// assign new weight between -2 and 2
+    /* Gene access, by position among the genes of this genome */
+
+    int connectionCount() {
+            return connectionCount;
+    }
+
+    /**
+     * @return	position of the connection gene, or (-(insertion point) - 1) if the genome doesn't have it
+     */
+    int connectionIndex(int innovation) {
+            return search(true, innovation);
+    }
+
+    int innovation(int index) {
+            return slab.innovation(connectionStart + index);
+    }
+
+    int inNode(int index) {
+            return slab.inNode(connectionStart + index);
+    }
+
+    int outNode(int index) {
+            return slab.outNode(connectionStart + index);
+    }
+
+    float weight(int index) {
+            return slab.weight(connectionStart + index);
+    }
+
+    void setWeight(int index, float weight) {
+            slab.setWeight(connectionStart + index, weight);
+    }
+
+    boolean isExpressed(int index) {
+            return slab.isExpressed(connectionStart + index);
+    }
+
+    void disable(int index) {
+            slab.setExpressed(connectionStart + index, false);
+    }
+
+    int nodeCount() {
+            return nodeCount;
+    }
+
+    /**
+     * @return	position of the node gene, or (-(insertion point) - 1) if the genome doesn't have it
+     */
+    int nodeIndex(int id) {
+            return search(false, id);
+    }
+
+    /**
+     * @return	Position of each node gene by id, for looking up the nodes of every connection at once.
+     * 			Built on first use and kept until a node is added, so it must not be changed.
+     */
+    IntIntMap nodePositions() {
+            IntIntMap positions = this.positions;
+            if (positions == null) {
+                    positions = new IntIntMap(nodeCount);
+                    for (int i = 0; i < nodeCount; i++) {
+                            positions.put(nodeId(i), i);
                     }
+                    this.positions = positions;
             }
+            return positions;
     }
 
-    public void addConnectionMutation(Random r, Counter innovation, int maxAttempts) {
-            int tries = 0;
-            boolean success = false;
-            while (tries < maxAttempts && success == false) {
-                    tries++;
-
-                    Integer[] nodeInnovationNumbers = new Integer[nodes.keySet().size()];
-                    nodes.keySet().toArray(nodeInnovationNumbers);
-                    Integer keyNode1 = nodeInnovationNumbers[r.nextInt(nodeInnovationNumbers.length)];
-                    Integer keyNode2 = nodeInnovationNumbers[r.nextInt(nodeInnovationNumbers.length)];
-
-                    NodeGene node1 = nodes.get(keyNode1);
-                    NodeGene node2 = nodes.get(keyNode2);
-                    float weight = r.nextFloat()*2f-1f;
-
-                    boolean reversed = false;
-                    if (node1.getType() == NodeGene.TYPE.HIDDEN && node2.getType() == NodeGene.TYPE.INPUT) {
-                            reversed = true;
-                    } else if (node1.getType() == NodeGene.TYPE.OUTPUT && node2.getType() == NodeGene.TYPE.HIDDEN) {
-                            reversed = true;
-                    } else if (node1.getType() == NodeGene.TYPE.OUTPUT && node2.getType() == NodeGene.TYPE.INPUT) {
-                            reversed = true;
-                    }
-                    if (reversed) {
-                            NodeGene tmp = node1;
-                            node1 = node2;
-                            node2 = tmp;
-                    }
+    int nodeId(int index) {
+            return slab.nodeId(nodeStart + index);
+    }
 
-                    boolean connectionImpossible = false;
-                    if (node1.getType() == NodeGene.TYPE.INPUT && node2.getType() == NodeGene.TYPE.INPUT) {
-                            connectionImpossible = true;
-                    } else if (node1.getType() == NodeGene.TYPE.OUTPUT && node2.getType() == NodeGene.TYPE.OUTPUT) {
-                            connectionImpossible = true;
-                    } else if (node1 == node2) {
-                            connectionImpossible = true;
-                    }
+    NodeGene.TYPE nodeType(int index) {
+            return TYPES[slab.nodeType(nodeStart + index)];
+    }
 
-                    /* check for circular structures */
-                    List<Integer> needsChecking = new LinkedList<>(); 	// list of nodes that should have their connections checked
-                    List<Integer> nodeIDs = new LinkedList<>(); 			// list of nodes that requires output from node2
-                    for (Integer connID : connections.keySet()) {
-                            ConnectionGene gene = connections.get(connID);
-                            if (gene.getInNode() == node2.getId()) { // connection comes from node2
-                                    nodeIDs.add(gene.getOutNode());
-                                    needsChecking.add(gene.getOutNode());
-                            }
-                    }
-                    while (!needsChecking.isEmpty()) {
-                            int nodeID = needsChecking.get(0);
-                            for (Integer connID : connections.keySet()) {
-                                    ConnectionGene gene = connections.get(connID);
-                                    if (gene.getInNode() == nodeID) { // connection comes from the needsChecking node
-                                            nodeIDs.add(gene.getOutNode());
-                                            needsChecking.add(gene.getOutNode());
-                                    }
-                            }
-                            needsChecking.remove(0);
-                    }
-                    for (Integer i : nodeIDs) { // loop through dependent nodes
-                            if (i == node1.getId()) { // if we make it here, then node1 calculation is dependent on node2 calculation, creating a deadlock
-                                    connectionImpossible = true;
-                            }
-                    }
+    /**
+     * @return	innovation number of a connection gene, or id of a node gene
+     */
+    private int key(boolean connection, int index) {
+            return connection ? innovation(index) : nodeId(index);
+    }
 
-                    boolean connectionExists = false;
-                    for (ConnectionGene con : connections.values()) {
-                            if (con.getInNode() == node1.getId() && con.getOutNode() == node2.getId()) { // existing connection
-                                    connectionExists = true;
-                                    break;
-                            } else if (con.getInNode() == node2.getId() && con.getOutNode() == node1.getId()) { // existing reverse connection
-                                    connectionExists = true;
-                                    break;
-                            }
+    /**
+     * Binary search by innovation number or id.
+     *
+     * @return	position of the gene, or (-(insertion point) - 1) if the genome doesn't have it
+     */
+    private int search(boolean connection, int key) {
+            int low = 0;
+            int high = (connection ? connectionCount : nodeCount) - 1;
+            while (low <= high) {
+                    int middle = (low + high) >>> 1;
+                    int value = key(connection, middle);
+                    if (value < key) {
+                            low = middle + 1;
+                    } else if (value > key) {
+                            high = middle - 1;
+                    } else {
+                            return middle;
                     }
+            }
+            return -(low + 1);
+    }
 
-                    if (connectionExists || connectionImpossible) {
-                            continue;
-                    }
+    /**
+     * Perturbs each weight with a chance of PROBABILITY_PERTURBING, and assigns a new weight between -2 and 2 otherwise.
+     * Weights are mutated a block at a time, see WeightKernels.
+     */
+    public void mutation(float PROBABILITY_PERTURBING, Random r) {
+            float[][] block = mutationBlocks.get();
+            for (int done = 0; done < connectionCount; done += WeightKernels.BLOCK) {
+                    int count = Math.min(WeightKernels.BLOCK, connectionCount - done);
+                    WeightKernels.fill(r, block[0], block[1], count);
+                    slab.mutateWeights(connectionStart + done, block[0], block[1], count, PROBABILITY_PERTURBING);
+            }
+    }
+
+    /**
+     * Mutates the Genome in a way that adds a connection between two nodes that aren't connected yet,
+     * without creating a cycle.
+     * Pairs of nodes that can be connected are counted and one of them is picked, so there's no rejection sampling.
+     * A pair of hidden nodes is connected either way with equal chance, unless one way would create a cycle.
+     *
+     * @param r				Random instance, from which we get our randomness
+     * @param innovation	Innovation counter for the connection genes of the run
+     */
+    public void addConnectionMutation(Random r, Counter innovation) {
+            addConnectionMutation(r, new InnovationRegistry(null, innovation));
+    }
 
-                    ConnectionGene newCon = new ConnectionGene(node1.getId(), node2.getId(), weight, true, innovation.getInnovation());
-                    connections.put(newCon.getInnovation(), newCon);
-                    success = true;
+    /**
+     * @param maxAttempts	ignored, as no attempt can fail
+     * @deprecated			use addConnectionMutation(Random, Counter)
+     */
+    @Deprecated
+    public void addConnectionMutation(Random r, Counter innovation, int maxAttempts) {
+            addConnectionMutation(r, innovation);
+    }
+
+    /**
+     * @param maxAttempts	ignored, as no attempt can fail
+     * @deprecated			use addConnectionMutation(Random, InnovationRegistry)
+     */
+    @Deprecated
+    public void addConnectionMutation(Random r, InnovationRegistry innovations, int maxAttempts) {
+            addConnectionMutation(r, innovations);
+    }
+
+    /**
+     * Same as addConnectionMutation(Random, Counter), except that a connection other genomes
+     * have added in this generation gets the same innovation number.
+     *
+     * @param innovations	Registry of the structural mutations of the generation
+     */
+    public void addConnectionMutation(Random r, InnovationRegistry innovations) {
+            Topology topology = topology();
+            int count = topology.nodeCount();
+
+            int candidateCount = 0;
+            for (int n = 0; n < count; n++) {
+                    candidateCount += topology.candidatesAfter(n);
             }
-            if (success == false) {
+
+            if (candidateCount == 0) {
                     //System.out.println("Tried, but could not do add connection mutation");
+                    return;
+            }
+
+            // the pair with that index, counting the pairs of each node in the order of the genome
+            int pair = r.nextInt(candidateCount);
+            int node1 = 0;
+            int pairs;
+            while (pair >= (pairs = topology.candidatesAfter(node1))) {
+                    pair -= pairs;
+                    node1++;
+            }
+            int node2 = topology.candidateAfter(node1, pair);
+            float weight = r.nextFloat()*2f-1f;
+
+            // inputs only start connections and outputs only end them
+            boolean swap;
+            if (nodeType(node1) == NodeGene.TYPE.HIDDEN && nodeType(node2) == NodeGene.TYPE.HIDDEN) {
+                    swap = r.nextBoolean();
+            } else {
+                    swap = nodeType(node1) == NodeGene.TYPE.OUTPUT || nodeType(node2) == NodeGene.TYPE.INPUT;
+            }
+            if (swap) {
+                    int tmp = node1;
+                    node1 = node2;
+                    node2 = tmp;
+            }
+            if (!topology.addConnection(node1, node2)) {	// only two hidden nodes can form a cycle, which the other way can't
+                    int tmp = node1;
+                    node1 = node2;
+                    node2 = tmp;
+                    topology.addConnection(node1, node2);
             }
+
+            int inNode = nodeId(node1);
+            int outNode = nodeId(node2);
+            addConnection(innovations.getConnectionInnovation(inNode, outNode), inNode, outNode, weight, true);
+    }
+
+    /**
+     * @return	Topological order of the nodes, built on first use and kept up to date by the mutations
+     */
+    private Topology topology() {
+            if (topology == null) {
+                    topology = new Topology(this);
+            }
+            return topology;
     }
 
     /**
      * Mutates the Genome in a way that adds a NodeGene to the Genome.
-     * 
+     *
      * @param r							Random instance, from which we get our randomness
      * @param connectionInnovation		Innovation counter for the connection genes of the run
      * @param nodeInnovation			Innovation counter for the node genes of the run
      */
     public void addNodeMutation(Random r, Counter connectionInnovation, Counter nodeInnovation) {
-            List<ConnectionGene> suitableConnections = new LinkedList<>();	// search genome for all expressed connections, and put them in a list
-            for (ConnectionGene connection : connections.values()) {
-                    if (connection.isExpressed()) {
-                            suitableConnections.add(connection);
+            addNodeMutation(r, new InnovationRegistry(nodeInnovation, connectionInnovation));
+    }
+
+    /**
+     * Same as addNodeMutation(Random, Counter, Counter), except that splitting a connection other genomes
+     * have split in this generation gives the same node and innovation numbers.
+     *
+     * @param r				Random instance, from which we get our randomness
+     * @param innovations	Registry of the structural mutations of the generation
+     */
+    public void addNodeMutation(Random r, InnovationRegistry innovations) {
+            int[] suitableConnections = new int[connectionCount];	// search genome for all expressed connections, and put their positions in a list
+            int suitableCount = 0;
+            for (int i = 0; i < connectionCount; i++) {
+                    if (isExpressed(i)) {
+                            suitableConnections[suitableCount++] = i;
                     }
             }
 
-            if (suitableConnections.isEmpty()) {
+            if (suitableCount == 0) {
                     //System.out.println("Tried, but could not do add node mutation");
                     return;
             }
 
-            int index = r.nextInt(suitableConnections.size());
-            ConnectionGene con = suitableConnections.get(index);
+            int con = suitableConnections[r.nextInt(suitableCount)];
 
-            NodeGene inNode = nodes.get(con.getInNode());
-            NodeGene outNode = nodes.get(con.getOutNode());
+            int inNode = inNode(con);
+            int outNode = outNode(con);
+            float weight = weight(con);
 
-            con.disable();
+            disable(con);
 
-            NodeGene newNode = new NodeGene(NodeGene.TYPE.HIDDEN, nodeInnovation.getInnovation());
-            ConnectionGene inToNew = new ConnectionGene(inNode.getId(), newNode.getId(), 1f, true, connectionInnovation.getInnovation());
-            ConnectionGene newToOut = new ConnectionGene(newNode.getId(), outNode.getId(), con.getWeight(), true, connectionInnovation.getInnovation());
+            NodeGene newNode = new NodeGene(NodeGene.TYPE.HIDDEN, innovations.getSplitNode(inNode, outNode));
 
-            nodes.put(newNode.getId(), newNode);
-            connections.put(inToNew.getInnovation(), inToNew);
-            connections.put(newToOut.getInnovation(), newToOut);
+            addNodeGene(newNode);
+            addConnection(innovations.getConnectionInnovation(inNode, newNode.getId()), inNode, newNode.getId(), 1f, true);
+            addConnection(innovations.getConnectionInnovation(newNode.getId(), outNode), newNode.getId(), outNode, weight, true);
+
+            if (topology != null) {
+                    int node = nodeIndex(newNode.getId());
+                    topology.addConnection(nodeIndex(inNode), node);
+                    topology.addConnection(node, nodeIndex(outNode));
+            }
     }
 
     /**
+     * Merges the connection genes of both parents in innovation order.
+     *
      * @param parent1	More fit parent
      * @param parent2	Less fit parent
      * @param r
      * @param DISABLED_GENE_INHERITING_CHANCE
-     * @return 
+     * @return
      */
     public static Genome crossover(Genome parent1, Genome parent2, Random r, float DISABLED_GENE_INHERITING_CHANCE) {
-            Genome child = new Genome();
+            Genome child = new Genome(capacity(parent1.connectionCount), capacity(parent1.nodeCount));
 
-            for (NodeGene parent1Node : parent1.getNodeGenes().values()) {
-                    child.addNodeGene(new NodeGene(parent1Node));
-            }
+            child.slab.copyNodes(parent1.slab, parent1.nodeStart, 0, parent1.nodeCount);
+            child.nodeCount = parent1.nodeCount;
+            child.positions = parent1.positions;
 
-            for (ConnectionGene parent1Conn : parent1.getConnectionGenes().values()) {
-                    if (parent2.getConnectionGenes().containsKey(parent1Conn.getInnovation())) { // matching gene
-                            ConnectionGene parent2Conn = parent2.getConnectionGenes().get(parent1Conn.getInnovation());
-                            boolean disabled = !parent1Conn.isExpressed() || !parent2Conn.isExpressed();
-                            ConnectionGene childConGene = r.nextBoolean() ? new ConnectionGene(parent1Conn) : new ConnectionGene(parent2Conn);
+            int j = 0;
+            for (int i = 0; i < parent1.connectionCount; i++) {
+                    int innovation = parent1.innovation(i);
+                    while (j < parent2.connectionCount && parent2.innovation(j) < innovation) {
+                            j++;
+                    }
+                    if (j < parent2.connectionCount && parent2.innovation(j) == innovation) { // matching gene
+                            boolean disabled = !parent1.isExpressed(i) || !parent2.isExpressed(j);
+                            Genome parent = r.nextBoolean() ? parent1 : parent2;
+                            int gene = parent == parent1 ? i : j;
+                            boolean isExpressed = parent.isExpressed(gene);
                             if (disabled && r.nextFloat() < DISABLED_GENE_INHERITING_CHANCE) {
-                                    childConGene.disable();
+                                    isExpressed = false;
                             }
-                            child.addConnectionGene(childConGene);
+                            child.addConnection(innovation, parent.inNode(gene), parent.outNode(gene), parent.weight(gene), isExpressed);
                     } else { // disjoint or excess gene
-                            ConnectionGene childConGene = new ConnectionGene(parent1Conn);
-                            child.addConnectionGene(childConGene);
+                            child.addConnection(innovation, parent1.inNode(i), parent1.outNode(i), parent1.weight(i), parent1.isExpressed(i));
                     }
             }
 
+            // the child has the nodes and connections of the more fit parent, only expressed differently
+            if (parent1.topology != null) {
+                    child.topology = new Topology(parent1.topology);
+            }
+
             return child;
     }
 
     public static float compatibilityDistance(Genome genome1, Genome genome2, float c1, float c2, float c3) {
-            int excessGenes = countExcessGenes(genome1, genome2);
-            int disjointGenes = countDisjointGenes(genome1, genome2);
-            float avgWeightDiff = averageWeightDiff(genome1, genome2);
+            return compatibilityDistance(genome1, genome2, c1, c2, c3, workspaces.get());
+    }
+
+    /**
+     * Same as compatibilityDistance(genome1, genome2, c1, c2, c3), using the given workspace.
+     * Safe to call from many threads at once, as long as each thread has its own workspace.
+     */
+    public static float compatibilityDistance(Genome genome1, Genome genome2, float c1, float c2, float c3, DistanceWorkspace workspace) {
+            compare(genome1, genome2, workspace);
+            int excessGenes = workspace.excess;
+            int disjointGenes = workspace.disjoint;
+            float avgWeightDiff = workspace.weightDifference/workspace.matchingConnections;
 
             return excessGenes * c1 + disjointGenes * c2 + avgWeightDiff * c3;
     }
 
-    public static int countMatchingGenes(Genome genome1, Genome genome2) {
-            int matchingGenes = 0;
+    public static boolean isCompatible(Genome genome1, Genome genome2, float c1, float c2, float c3, float threshold) {
+            return isCompatible(genome1, genome2, c1, c2, c3, threshold, workspaces.get());
+    }
 
-            List<Integer> nodeKeys1 = asSortedList(genome1.getNodeGenes().keySet(), tmpList1);
-            List<Integer> nodeKeys2 = asSortedList(genome2.getNodeGenes().keySet(), tmpList2);
+    /**
+     * Same as compatibilityDistance(genome1, genome2, c1, c2, c3, workspace) &lt; threshold, but stops comparing
+     * as soon as the excess and disjoint genes alone reach the threshold. Coefficients must not be negative.
+     */
+    public static boolean isCompatible(Genome genome1, Genome genome2, float c1, float c2, float c3, float threshold, DistanceWorkspace workspace) {
+            clear(workspace);
 
-            int highestInnovation1 = nodeKeys1.get(nodeKeys1.size()-1);
-            int highestInnovation2 = nodeKeys2.get(nodeKeys2.size()-1);
-            int indices = Math.max(highestInnovation1, highestInnovation2);
+            if (!merge(genome1, genome2, false, workspace, c1, c2, threshold)) {
+                    return false;
+            }
+            int matchingNodes = workspace.matching;
 
-            for (int i = 0; i <= indices; i++) { 					// loop through genes -> i is innovation numbers
-                    NodeGene node1 = genome1.getNodeGenes().get(i);
-                    NodeGene node2 = genome2.getNodeGenes().get(i);
-                    if (node1 != null && node2 != null) { 
-                            // both genomes has the gene w/ this innovation number
-                            matchingGenes++;
-                    }
+            if (!merge(genome1, genome2, true, workspace, c1, c2, threshold)) {
+                    return false;
             }
+            workspace.matchingConnections = workspace.matching - matchingNodes;
 
-            List<Integer> conKeys1 = asSortedList(genome1.getConnectionGenes().keySet(), tmpList1);
-            List<Integer> conKeys2 = asSortedList(genome2.getConnectionGenes().keySet(), tmpList2);
+            float avgWeightDiff = workspace.weightDifference/workspace.matchingConnections;
 
-            highestInnovation1 = conKeys1.get(conKeys1.size()-1);
-            highestInnovation2 = conKeys2.get(conKeys2.size()-1);
+            return workspace.excess * c1 + workspace.disjoint * c2 + avgWeightDiff * c3 < threshold;
+    }
 
-            indices = Math.max(highestInnovation1, highestInnovation2);
-            for (int i = 0; i <= indices; i++) { 					// loop through genes -> i is innovation numbers
-                    ConnectionGene connection1 = genome1.getConnectionGenes().get(i);
-                    ConnectionGene connection2 = genome2.getConnectionGenes().get(i);
-                    if (connection1 != null && connection2 != null) { 
-                            // both genomes has the gene w/ this innovation number
-                            matchingGenes++;
-                    }
-            }
+    public static int countMatchingGenes(Genome genome1, Genome genome2) {
+            return countMatchingGenes(genome1, genome2, workspaces.get());
+    }
 
-            return matchingGenes;
+    public static int countMatchingGenes(Genome genome1, Genome genome2, DistanceWorkspace workspace) {
+            compare(genome1, genome2, workspace);
+            return workspace.matching;
     }
 
     public static int countDisjointGenes(Genome genome1, Genome genome2) {
-            int disjointGenes = 0;
-
-            List<Integer> nodeKeys1 = asSortedList(genome1.getNodeGenes().keySet(), tmpList1);
-            List<Integer> nodeKeys2 = asSortedList(genome2.getNodeGenes().keySet(), tmpList2);
-
-            int highestInnovation1 = nodeKeys1.get(nodeKeys1.size()-1);
-            int highestInnovation2 = nodeKeys2.get(nodeKeys2.size()-1);
-            int indices = Math.max(highestInnovation1, highestInnovation2);
-
-            for (int i = 0; i <= indices; i++) {
-                    NodeGene node1 = genome1.getNodeGenes().get(i);
-                    NodeGene node2 = genome2.getNodeGenes().get(i);
-                    if (node1 == null && highestInnovation1 > i && node2 != null) {
-                            // genome 1 lacks gene, genome 2 has gene, genome 1 has more genes w/ higher innovation numbers
-                            disjointGenes++;
-                    } else if (node2 == null && highestInnovation2 > i && node1 != null) {
-                            disjointGenes++;
-                    }
-            }
+            return countDisjointGenes(genome1, genome2, workspaces.get());
+    }
 
-            List<Integer> conKeys1 = asSortedList(genome1.getConnectionGenes().keySet(), tmpList1);
-            List<Integer> conKeys2 = asSortedList(genome2.getConnectionGenes().keySet(), tmpList2);
+    public static int countDisjointGenes(Genome genome1, Genome genome2, DistanceWorkspace workspace) {
+            compare(genome1, genome2, workspace);
+            return workspace.disjoint;
+    }
 
-            highestInnovation1 = conKeys1.get(conKeys1.size()-1);
-            highestInnovation2 = conKeys2.get(conKeys2.size()-1);
+    public static int countExcessGenes(Genome genome1, Genome genome2) {
+            return countExcessGenes(genome1, genome2, workspaces.get());
+    }
 
-            indices = Math.max(highestInnovation1, highestInnovation2);
-            for (int i = 0; i <= indices; i++) {
-                    ConnectionGene connection1 = genome1.getConnectionGenes().get(i);
-                    ConnectionGene connection2 = genome2.getConnectionGenes().get(i);
-                    if (connection1 == null && highestInnovation1 > i && connection2 != null) {
-                            disjointGenes++;
-                    } else if (connection2 == null && highestInnovation2 > i && connection1 != null) {
-                            disjointGenes++;
-                    }
-            }
+    public static int countExcessGenes(Genome genome1, Genome genome2, DistanceWorkspace workspace) {
+            compare(genome1, genome2, workspace);
+            return workspace.excess;
+    }
 
-            return disjointGenes;
+    public static float averageWeightDiff(Genome genome1, Genome genome2) {
+            return averageWeightDiff(genome1, genome2, workspaces.get());
     }
 
-    public static int countExcessGenes(Genome genome1, Genome genome2) {
-            int excessGenes = 0;
-
-            List<Integer> nodeKeys1 = asSortedList(genome1.getNodeGenes().keySet(), tmpList1);
-            List<Integer> nodeKeys2 = asSortedList(genome2.getNodeGenes().keySet(), tmpList2);
-
-            int highestInnovation1 = nodeKeys1.get(nodeKeys1.size()-1);
-            int highestInnovation2 = nodeKeys2.get(nodeKeys2.size()-1);
-            int indices = Math.max(highestInnovation1, highestInnovation2);
-
-            for (int i = 0; i <= indices; i++) {
-                    NodeGene node1 = genome1.getNodeGenes().get(i);
-                    NodeGene node2 = genome2.getNodeGenes().get(i);
-                    if (node1 == null && highestInnovation1 < i && node2 != null) {
-                            excessGenes++;
-                    } else if (node2 == null && highestInnovation2 < i && node1 != null) {
-                            excessGenes++;
+    public static float averageWeightDiff(Genome genome1, Genome genome2, DistanceWorkspace workspace) {
+            compare(genome1, genome2, workspace);
+            return workspace.weightDifference/workspace.matchingConnections;
+    }
+
+    /**
+     * Counts matching, disjoint and excess genes of both node and connection genes, and sums the weight
+     * difference of matching connection genes, in one merge of the sorted records.
+     * A gene only one genome has is excess if its innovation number is higher than all of the other genome's,
+     * and disjoint otherwise.
+     */
+    private static void compare(Genome genome1, Genome genome2, DistanceWorkspace workspace) {
+            clear(workspace);
+
+            merge(genome1, genome2, false, workspace, 0f, 0f, Float.POSITIVE_INFINITY);
+            int matchingNodes = workspace.matching;
+
+            merge(genome1, genome2, true, workspace, 0f, 0f, Float.POSITIVE_INFINITY);
+            workspace.matchingConnections = workspace.matching - matchingNodes;
+    }
+
+    private static void clear(DistanceWorkspace workspace) {
+            workspace.matching = 0;
+            workspace.disjoint = 0;
+            workspace.excess = 0;
+            workspace.matchingConnections = 0;
+            workspace.weightDifference = 0;
+            workspace.pending = 0;
+    }
+
+    /**
+     * Adds the counts of one kind of gene to the workspace.
+     *
+     * @param connections	true to compare connection genes, including their weights, false to compare node genes
+     * @return				false if it stopped because excess * c1 + disjoint * c2 reached the threshold, true otherwise
+     */
+    private static boolean merge(Genome genome1, Genome genome2, boolean connections, DistanceWorkspace workspace, float c1, float c2, float threshold) {
+            int count1 = connections ? genome1.connectionCount : genome1.nodeCount;
+            int count2 = connections ? genome2.connectionCount : genome2.nodeCount;
+            int highestInnovation1 = count1 > 0 ? genome1.key(connections, count1-1) : -1;
+            int highestInnovation2 = count2 > 0 ? genome2.key(connections, count2-1) : -1;
+
+            int i = 0;
+            int j = 0;
+            while (i < count1 || j < count2) {
+                    int key1 = i < count1 ? genome1.key(connections, i) : 0;
+                    int key2 = j < count2 ? genome2.key(connections, j) : 0;
+                    if (j == count2 || (i < count1 && key1 < key2)) {			// only genome 1 has the gene
+                            if (key1 > highestInnovation2) {
+                                    workspace.excess++;
+                            } else {
+                                    workspace.disjoint++;
+                            }
+                            i++;
+                    } else if (i == count1 || key2 < key1) {					// only genome 2 has the gene
+                            if (key2 > highestInnovation1) {
+                                    workspace.excess++;
+                            } else {
+                                    workspace.disjoint++;
+                            }
+                            j++;
+                    } else {													// both genomes have the gene
+                            workspace.matching++;
+                            if (connections) {
+                                    workspace.weights1[workspace.pending] = genome1.weight(i);
+                                    workspace.weights2[workspace.pending] = genome2.weight(j);
+                                    if (++workspace.pending == WeightKernels.BLOCK) {
+                                            addWeightDifferences(workspace);
+                                    }
+                            }
+                            i++;
+                            j++;
+                            continue;
+                    }
+                    if (workspace.excess * c1 + workspace.disjoint * c2 >= threshold) {
+                            addWeightDifferences(workspace);
+                            return false;
                     }
             }
+            addWeightDifferences(workspace);
+            return true;
+    }
 
-            List<Integer> conKeys1 = asSortedList(genome1.getConnectionGenes().keySet(), tmpList1);
-            List<Integer> conKeys2 = asSortedList(genome2.getConnectionGenes().keySet(), tmpList2);
+    /**
+     * Adds the weight differences of the matching connection genes gathered so far.
+     */
+    private static void addWeightDifferences(DistanceWorkspace workspace) {
+            workspace.weightDifference += WeightKernels.sumOfDifferences(workspace.weights1, workspace.weights2, workspace.pending);
+            workspace.pending = 0;
+    }
 
-            highestInnovation1 = conKeys1.get(conKeys1.size()-1);
-            highestInnovation2 = conKeys2.get(conKeys2.size()-1);
+    /**
+     * Map of the connection genes. Each value is a ConnectionGene that reads and writes the records.
+     */
+    private class ConnectionView extends AbstractMap<Integer, ConnectionGene> {
 
-            indices = Math.max(highestInnovation1, highestInnovation2);
-            for (int i = 0; i <= indices; i++) {
-                    ConnectionGene connection1 = genome1.getConnectionGenes().get(i);
-                    ConnectionGene connection2 = genome2.getConnectionGenes().get(i);
-                    if (connection1 == null && highestInnovation1 < i && connection2 != null) {
-                            excessGenes++;
-                    } else if (connection2 == null && highestInnovation2 < i && connection1 != null) {
-                            excessGenes++;
+            @Override
+            public ConnectionGene get(Object key) {
+                    if (!(key instanceof Integer) || connectionIndex((Integer)key) < 0) {
+                            return null;
                     }
+                    return new ConnectionGene(Genome.this, (Integer)key);
             }
 
-            return excessGenes;
-    }
+            @Override
+            public boolean containsKey(Object key) {
+                    return key instanceof Integer && connectionIndex((Integer)key) >= 0;
+            }
 
-    public static float averageWeightDiff(Genome genome1, Genome genome2) {
-            int matchingGenes = 0;
-            float weightDifference = 0;
-
-            List<Integer> conKeys1 = asSortedList(genome1.getConnectionGenes().keySet(), tmpList1);
-            List<Integer> conKeys2 = asSortedList(genome2.getConnectionGenes().keySet(), tmpList2);
-
-            int highestInnovation1 = conKeys1.get(conKeys1.size()-1);
-            int highestInnovation2 = conKeys2.get(conKeys2.size()-1);
-
-            int indices = Math.max(highestInnovation1, highestInnovation2);
-            for (int i = 0; i <= indices; i++) { 					// loop through genes -> i is innovation numbers
-                    ConnectionGene connection1 = genome1.getConnectionGenes().get(i);
-                    ConnectionGene connection2 = genome2.getConnectionGenes().get(i);
-                    if (connection1 != null && connection2 != null) { 
-                            // both genomes has the gene w/ this innovation number
-                            matchingGenes++;
-                            weightDifference += Math.abs(connection1.getWeight()-connection2.getWeight());
+            @Override
+            public ConnectionGene put(Integer key, ConnectionGene value) {
+                    ConnectionGene previous = get(key);
+                    if (previous != null) {
+                            previous = previous.copy();
                     }
+                    addConnectionGene(value);
+                    return previous;
+            }
+
+            @Override
+            public int size() {
+                    return connectionCount;
             }
 
-            return weightDifference/matchingGenes;
+            @Override
+            public Set<Entry<Integer, ConnectionGene>> entrySet() {
+                    return new AbstractSet<Entry<Integer, ConnectionGene>>() {
+
+                            @Override
+                            public Iterator<Entry<Integer, ConnectionGene>> iterator() {
+                                    return new Iterator<Entry<Integer, ConnectionGene>>() {
+
+                                            private int index = 0;
+
+                                            @Override
+                                            public boolean hasNext() {
+                                                    return index < connectionCount;
+                                            }
+
+                                            @Override
+                                            public Entry<Integer, ConnectionGene> next() {
+                                                    if (!hasNext()) {
+                                                            throw new NoSuchElementException();
+                                                    }
+                                                    int innovation = innovation(index++);
+                                                    return new SimpleImmutableEntry<>(innovation, new ConnectionGene(Genome.this, innovation));
+                                            }
+                                    };
+                            }
+
+                            @Override
+                            public int size() {
+                                    return connectionCount;
+                            }
+                    };
+            }
     }
 
     /**
-     * Note: Will sort in ascending order
+     * Map of the node genes. Each value is a new NodeGene holding the id and type of a node.
      */
-    private static List<Integer> asSortedList(Collection<Integer> c, List<Integer> list) {
-      list.clear();
-      list.addAll(c);
-      java.util.Collections.sort(list);
-      return list;
+    private class NodeView extends AbstractMap<Integer, NodeGene> {
+
+            @Override
+            public NodeGene get(Object key) {
+                    if (!(key instanceof Integer)) {
+                            return null;
+                    }
+                    int index = nodeIndex((Integer)key);
+                    return index < 0 ? null : new NodeGene(nodeType(index), nodeId(index));
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                    return key instanceof Integer && nodeIndex((Integer)key) >= 0;
+            }
+
+            @Override
+            public NodeGene put(Integer key, NodeGene value) {
+                    NodeGene previous = get(key);
+                    addNodeGene(value);
+                    return previous;
+            }
+
+            @Override
+            public int size() {
+                    return nodeCount;
+            }
+
+            @Override
+            public Set<Entry<Integer, NodeGene>> entrySet() {
+                    return new AbstractSet<Entry<Integer, NodeGene>>() {
+
+                            @Override
+                            public Iterator<Entry<Integer, NodeGene>> iterator() {
+                                    return new Iterator<Entry<Integer, NodeGene>>() {
+
+                                            private int index = 0;
+
+                                            @Override
+                                            public boolean hasNext() {
+                                                    return index < nodeCount;
+                                            }
+
+                                            @Override
+                                            public Entry<Integer, NodeGene> next() {
+                                                    if (!hasNext()) {
+                                                            throw new NoSuchElementException();
+                                                    }
+                                                    NodeGene node = new NodeGene(nodeType(index), nodeId(index));
+                                                    index++;
+                                                    return new SimpleImmutableEntry<>(node.getId(), node);
+                                            }
+                                    };
+                            }
+
+                            @Override
+                            public int size() {
+                                    return nodeCount;
+                            }
+                    };
+            }
     }
 }
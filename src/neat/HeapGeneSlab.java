@@ -0,0 +1,108 @@
+package neat;
+
+/**
+ * Slab keeping its records in arrays on the heap, two longs and a float per connection and an int and a byte per node.
+ * 
+ * @author hydrozoa
+ */
+class HeapGeneSlab extends GeneSlab {
+	
+	private long[] records;		// gene and link of each connection
+	private float[] weights;
+	private int[] nodeIds;
+	private byte[] nodeTypes;
+	
+	/**
+	 * @param connections	no. of connection records
+	 * @param nodes			no. of node records
+	 */
+	HeapGeneSlab(int connections, int nodes) {
+		records = new long[connections * 2];
+		weights = new float[connections];
+		nodeIds = new int[nodes];
+		nodeTypes = new byte[nodes];
+	}
+	
+	@Override
+	int connectionCapacity() {
+		return weights.length;
+	}
+	
+	@Override
+	int nodeCapacity() {
+		return nodeIds.length;
+	}
+	
+	@Override
+	long gene(int connection) {
+		return records[connection * 2];
+	}
+	
+	@Override
+	void setGene(int connection, long gene) {
+		records[connection * 2] = gene;
+	}
+	
+	@Override
+	long link(int connection) {
+		return records[connection * 2 + 1];
+	}
+	
+	@Override
+	void setLink(int connection, long link) {
+		records[connection * 2 + 1] = link;
+	}
+	
+	@Override
+	float weight(int connection) {
+		return weights[connection];
+	}
+	
+	@Override
+	void setWeight(int connection, float weight) {
+		weights[connection] = weight;
+	}
+	
+	@Override
+	void mutateWeights(int from, float[] uniform, float[] gaussian, int count, float perturbing) {
+		WeightKernels.mutate(weights, from, uniform, gaussian, count, perturbing);
+	}
+	
+	@Override
+	int nodeId(int node) {
+		return nodeIds[node];
+	}
+	
+	@Override
+	byte nodeType(int node) {
+		return nodeTypes[node];
+	}
+	
+	@Override
+	void setNode(int node, int id, byte type) {
+		nodeIds[node] = id;
+		nodeTypes[node] = type;
+	}
+	
+	@Override
+	void copyConnections(GeneSlab source, int from, int to, int count) {
+		if (source instanceof HeapGeneSlab) {
+			HeapGeneSlab heap = (HeapGeneSlab)source;
+			System.arraycopy(heap.records, from * 2, records, to * 2, count * 2);
+			System.arraycopy(heap.weights, from, weights, to, count);
+		} else {
+			super.copyConnections(source, from, to, count);
+		}
+	}
+	
+	@Override
+	void copyNodes(GeneSlab source, int from, int to, int count) {
+		if (source instanceof HeapGeneSlab) {
+			HeapGeneSlab heap = (HeapGeneSlab)source;
+			System.arraycopy(heap.nodeIds, from, nodeIds, to, count);
+			System.arraycopy(heap.nodeTypes, from, nodeTypes, to, count);
+		} else {
+			super.copyNodes(source, from, to, count);
+		}
+	}
+}
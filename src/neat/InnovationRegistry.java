@@ -0,0 +1,62 @@
+package neat;
+
+/**
+ * Hands out innovation numbers for structural mutations, so that genomes making the same mutation in a generation
+ * get the same numbers. Connections are registered by the nodes they connect, and splitting a connection always
+ * gives the same node, and so the same two new connections.
+ * Cleared once per generation, as NEAT only matches mutations made in the same generation.
+ * Safe to use from several threads at once, e.g. while breeding in parallel.
+ * 
+ * @author hydrozoa
+ */
+public class InnovationRegistry {
+	
+	private Counter nodeInnovation;
+	private Counter connectionInnovation;
+	
+	private LongIntMap connections = new LongIntMap(16);	// innovation number by connected nodes
+	private LongIntMap splits = new LongIntMap(16);			// new node id by nodes of the split connection
+	
+	public InnovationRegistry(Counter nodeInnovation, Counter connectionInnovation) {
+		this.nodeInnovation = nodeInnovation;
+		this.connectionInnovation = connectionInnovation;
+	}
+	
+	/**
+	 * @return	Innovation number of a new connection between two nodes
+	 */
+	public synchronized int getConnectionInnovation(int inNode, int outNode) {
+		long key = pack(inNode, outNode);
+		int innovation = connections.get(key, -1);
+		if (innovation < 0) {
+			innovation = connectionInnovation.getInnovation();
+			connections.put(key, innovation);
+		}
+		return innovation;
+	}
+	
+	/**
+	 * @return	Id of the node that splits the connection between two nodes
+	 */
+	public synchronized int getSplitNode(int inNode, int outNode) {
+		long key = pack(inNode, outNode);
+		int id = splits.get(key, -1);
+		if (id < 0) {
+			id = nodeInnovation.getInnovation();
+			splits.put(key, id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Forgets all mutations, so that they get new innovation numbers when made again.
+	 */
+	public synchronized void clear() {
+		connections.clear();
+		splits.clear();
+	}
+	
+	private static long pack(int inNode, int outNode) {
+		return ((long)inNode << 32) | (outNode & 0xFFFFFFFFL);
+	}
+}
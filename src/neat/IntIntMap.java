@@ -0,0 +1,86 @@
+package neat;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to int values, with open addressing and linear probing over primitive arrays,
+ * so neither keys nor values are boxed. Keys must not be negative.
+ * 
+ * @author hydrozoa
+ */
+class IntIntMap {
+	
+	private static final int FREE = -1;
+	
+	private int[] keys;
+	private int[] values;
+	private int size;
+	
+	/**
+	 * @param expected	no. of entries the map holds without growing
+	 */
+	IntIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+	}
+	
+	/**
+	 * @return	value of the key, or missing if it isn't in the map
+	 */
+	int get(int key, int missing) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			if (keys[i] == FREE) {
+				return missing;
+			}
+		}
+	}
+	
+	void put(int key, int value) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != FREE && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		values[i] = value;
+		if (keys[i] == FREE) {
+			keys[i] = key;
+			if (++size * 2 > keys.length) {	// at most half full
+				grow();
+			}
+		}
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	void clear() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+	
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, FREE);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+	
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;	// spreads runs of consecutive keys, like ids, over the table
+		return h ^ (h >>> 16);
+	}
+}
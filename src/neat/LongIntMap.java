@@ -0,0 +1,86 @@
+package neat;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to int values, with open addressing and linear probing over primitive arrays,
+ * so neither keys nor values are boxed. Keys must not be negative.
+ * 
+ * @author hydrozoa
+ */
+class LongIntMap {
+	
+	private static final long FREE = -1;
+	
+	private long[] keys;
+	private int[] values;
+	private int size;
+	
+	/**
+	 * @param expected	no. of entries the map holds without growing
+	 */
+	LongIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+	}
+	
+	/**
+	 * @return	value of the key, or missing if it isn't in the map
+	 */
+	int get(long key, int missing) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			if (keys[i] == FREE) {
+				return missing;
+			}
+		}
+	}
+	
+	void put(long key, int value) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != FREE && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		values[i] = value;
+		if (keys[i] == FREE) {
+			keys[i] = key;
+			if (++size * 2 > keys.length) {	// at most half full
+				grow();
+			}
+		}
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	void clear() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, FREE);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+	
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;	// spreads keys that only differ in their low bits
+		return (int)(h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,171 @@
+package neat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Slab keeping its records off the heap, in a memory-mapped temporary file, so a population of any size only
+ * takes a small object per genome on the heap. The operating system pages the records in and out as needed.
+ * 
+ * Records are mapped in chunks of 2^24, each chunk of connection records followed by the chunk of node records
+ * with the same numbers in the file, so growing never moves a record. Only as much of each chunk is mapped as
+ * is used, and the rest of the file stays sparse.
+ * A slab holds one generation, and is closed once that generation has been replaced.
+ * 
+ * @author hydrozoa
+ */
+class MappedGeneSlab extends GeneSlab {
+	
+	private static final int CONNECTION_BYTES = 20;		// gene, link and weight
+	private static final int NODE_BYTES = 5;			// id and type
+	
+	private static final int CHUNK_BITS = 24;
+	private static final int CHUNK = 1 << CHUNK_BITS;	// records per chunk, keeping a mapped chunk well under 2 GB
+	private static final int MASK = CHUNK - 1;
+	private static final long CHUNK_SPAN = (long)CHUNK * (CONNECTION_BYTES + NODE_BYTES);	// bytes of the file per chunk
+	
+	private File file;
+	private RandomAccessFile access;
+	private FileChannel channel;
+	
+	private MappedByteBuffer[] connections = new MappedByteBuffer[0];
+	private MappedByteBuffer[] nodes = new MappedByteBuffer[0];
+	private int connectionCapacity;
+	private int nodeCapacity;
+	
+	MappedGeneSlab() {
+		try {
+			file = File.createTempFile("genomes", ".slab");
+			file.deleteOnExit();
+			access = new RandomAccessFile(file, "rw");
+			channel = access.getChannel();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not create file for genes", e);
+		}
+	}
+	
+	/**
+	 * Makes room for a number of records, mapping more of the file if needed.
+	 * Records already in the slab are kept.
+	 */
+	void reserve(int connectionRecords, int nodeRecords) {
+		try {
+			if (connectionRecords > connectionCapacity) {
+				connections = map(connections, connectionRecords, 0, CONNECTION_BYTES);
+				connectionCapacity = connectionRecords;
+			}
+			if (nodeRecords > nodeCapacity) {
+				nodes = map(nodes, nodeRecords, (long)CHUNK * CONNECTION_BYTES, NODE_BYTES);
+				nodeCapacity = nodeRecords;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not map file for genes", e);
+		}
+	}
+	
+	/**
+	 * Closes and deletes the file, and lets go of the mapped chunks, which are unmapped once they are garbage collected.
+	 * Genomes packed into the slab can't be used anymore.
+	 */
+	void close() {
+		connections = new MappedByteBuffer[0];
+		nodes = new MappedByteBuffer[0];
+		connectionCapacity = 0;
+		nodeCapacity = 0;
+		try {
+			access.close();		// closes the channel too
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not close file for genes", e);
+		}
+		file.delete();			// left for deleteOnExit() if the system keeps mapped files
+	}
+	
+	/**
+	 * Maps chunks of one kind of record, the last one only as far as needed.
+	 * 
+	 * @param offset	position of the first chunk in the file
+	 */
+	private MappedByteBuffer[] map(MappedByteBuffer[] chunks, int records, long offset, int bytes) throws IOException {
+		int chunkCount = (records + MASK) >>> CHUNK_BITS;
+		chunks = Arrays.copyOf(chunks, Math.max(chunks.length, chunkCount));
+		for (int i = 0; i < chunkCount; i++) {
+			long size = (long)Math.min(CHUNK, records - (i << CHUNK_BITS)) * bytes;
+			if (chunks[i] == null || chunks[i].capacity() < size) {
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SPAN + offset, size);
+			}
+		}
+		return chunks;
+	}
+	
+	@Override
+	int connectionCapacity() {
+		return connectionCapacity;
+	}
+	
+	@Override
+	int nodeCapacity() {
+		return nodeCapacity;
+	}
+	
+	@Override
+	long gene(int connection) {
+		return connectionChunk(connection).getLong(connectionOffset(connection));
+	}
+	
+	@Override
+	void setGene(int connection, long gene) {
+		connectionChunk(connection).putLong(connectionOffset(connection), gene);
+	}
+	
+	@Override
+	long link(int connection) {
+		return connectionChunk(connection).getLong(connectionOffset(connection) + 8);
+	}
+	
+	@Override
+	void setLink(int connection, long link) {
+		connectionChunk(connection).putLong(connectionOffset(connection) + 8, link);
+	}
+	
+	@Override
+	float weight(int connection) {
+		return connectionChunk(connection).getFloat(connectionOffset(connection) + 16);
+	}
+	
+	@Override
+	void setWeight(int connection, float weight) {
+		connectionChunk(connection).putFloat(connectionOffset(connection) + 16, weight);
+	}
+	
+	@Override
+	int nodeId(int node) {
+		return nodes[node >>> CHUNK_BITS].getInt((node & MASK) * NODE_BYTES);
+	}
+	
+	@Override
+	byte nodeType(int node) {
+		return nodes[node >>> CHUNK_BITS].get((node & MASK) * NODE_BYTES + 4);
+	}
+	
+	@Override
+	void setNode(int node, int id, byte type) {
+		ByteBuffer chunk = nodes[node >>> CHUNK_BITS];
+		int offset = (node & MASK) * NODE_BYTES;
+		chunk.putInt(offset, id);
+		chunk.put(offset + 4, type);
+	}
+	
+	private ByteBuffer connectionChunk(int connection) {
+		return connections[connection >>> CHUNK_BITS];
+	}
+	
+	private static int connectionOffset(int connection) {
+		return (connection & MASK) * CONNECTION_BYTES;
+	}
+}
@@ -28,6 +28,35 @@ public class NEATConfiguration {
 	 */
 	public float DT = 3.0f;	
 	
+	/**
+	 * whether genomes are divided into species using C1, C2, C3 and DT, with fitness sharing and offspring allotted per species.
+	 * Otherwise the fittest tenth of the whole population breeds the next generation, as it always did before.
+	 */
+	public boolean SPECIATION = false;
+	
+	/**
+	 * species with at least this many members have their champion copied into the next generation unchanged
+	 */
+	public int CHAMPION_SPECIES_SIZE = 5;
+	
+	/**
+	 * if above 1, each parent is the fittest of this many genomes picked at random from the population (or its species),
+	 * instead of being picked at random from the fittest tenth
+	 */
+	public int TOURNAMENT_SIZE = 0;
+	
+	/**
+	 * whether the genes of each new generation are packed into one shared slab of fixed-width records,
+	 * which takes far less heap per genome for very large populations
+	 */
+	public boolean PACKED_GENOMES = false;
+	
+	/**
+	 * whether generations are packed off the heap, into memory-mapped temporary files, instead of into slabs on the heap.
+	 * Two files are used in turns, so the genomes of a generation can only be used until the next generation is evaluated.
+	 */
+	public boolean OFF_HEAP_GENOMES = false;
+	
 	/**
 	 * Fraction of children genomes resulting from mutation without crossover. The remaining children come from mating with corssover.
 	 */
@@ -0,0 +1,137 @@
+package neat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Networks of many genomes, calculated together on a matrix of inputs with one row per genome. Genomes with the
+ * same expressed topology share one schedule, with their weights and neuron values interleaved so each step of
+ * the calculation is a loop over the genomes of the group. This keeps the data of a step together in memory and
+ * lets the JIT vectorize the loops. Results are identical bit for bit to those of each genome's {@link NeuralNetwork}.
+ * 
+ * All genomes must have the same number of input and output nodes. Not thread-safe, as scratch space is kept.
+ * 
+ * @author hydrozoa
+ */
+public class NetworkBatch {
+	
+	private int size;
+	private int inputCount;
+	private int outputCount;
+	
+	private List<Group> groups = new ArrayList<>();
+	
+	/**
+	 * Networks using Activation.DEFAULT.
+	 */
+	public NetworkBatch(List<Genome> genomes) {
+		this(genomes, Activation.DEFAULT);
+	}
+	
+	public NetworkBatch(List<Genome> genomes, Activation activation) {
+		this(genomes, genome -> new NeuralNetwork(genome, activation));
+	}
+	
+	/**
+	 * Networks taken from a cache, so that topologies it still holds, e.g. those of elites and unchanged clones,
+	 * aren't scheduled again. Only the schedules of the cached networks are used, so later calls to the cache
+	 * don't change the batch. Networks use the activation function the cache builds them with.
+	 */
+	public NetworkBatch(List<Genome> genomes, NetworkCache cache) {
+		this(genomes, cache::get);
+	}
+	
+	/**
+	 * @param networks	gives a network with the topology of a genome
+	 */
+	private NetworkBatch(List<Genome> genomes, Function<Genome, NeuralNetwork> networks) {
+		size = genomes.size();
+		
+		HashMap<TopologyKey, List<Integer>> rows = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			rows.computeIfAbsent(new TopologyKey(genomes.get(i)), key -> new ArrayList<>()).add(i);
+		}
+		
+		for (List<Integer> members : rows.values()) {
+			Group group = new Group(genomes, members, networks.apply(genomes.get(members.get(0))));
+			if (groups.isEmpty()) {
+				inputCount = group.network.getInputCount();
+				outputCount = group.network.getOutputCount();
+			} else if (group.network.getInputCount() != inputCount || group.network.getOutputCount() != outputCount) {
+				throw new IllegalArgumentException("All genomes must have the same number of input and output neurons");
+			}
+			groups.add(group);
+		}
+	}
+	
+	public float[] calculate(float[] inputs) {
+		return calculate(inputs, new float[size * outputCount]);
+	}
+	
+	/**
+	 * @param inputs	row-major matrix with a row of one value per input neuron for each genome, in order
+	 * @param outputs	row-major matrix receiving a row of one value per output neuron for each genome,
+	 * 					which is all NaN if the genome's network can't be solved
+	 * @return			outputs
+	 */
+	public float[] calculate(float[] inputs, float[] outputs) {
+		if (inputs.length != size * inputCount) {
+			throw new IllegalArgumentException("Number of inputs must match number of genomes times number of input neurons");
+		}
+		if (outputs.length != size * outputCount) {
+			throw new IllegalArgumentException("Number of outputs must match number of genomes times number of output neurons");
+		}
+		for (Group group : groups) {
+			group.network.calculate(inputs, outputs, group.rows, group.weights, group.values);
+		}
+		return outputs;
+	}
+	
+	/**
+	 * @return	no. of genomes
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return	no. of distinct topologies among the genomes
+	 */
+	public int getGroupCount() {
+		return groups.size();
+	}
+	
+	public int getInputCount() {
+		return inputCount;
+	}
+	
+	public int getOutputCount() {
+		return outputCount;
+	}
+	
+	/**
+	 * Genomes with the same topology, calculated together.
+	 */
+	private static class Group {
+		
+		private NeuralNetwork network;	// schedule of the topology, whose own weights aren't used
+		private int[] rows;				// row of each genome in the input and output matrices
+		private float[] weights;		// weight of edge e for the genome of lane j at e * lanes + j
+		private float[] values;
+		
+		private Group(List<Genome> genomes, List<Integer> members, NeuralNetwork network) {
+			this.network = network;
+			
+			int lanes = members.size();
+			rows = new int[lanes];
+			weights = new float[network.getEdgeCount() * lanes];
+			for (int j = 0; j < lanes; j++) {
+				rows[j] = members.get(j);
+				network.setWeights(genomes.get(rows[j]), weights, j, lanes);
+			}
+			values = new float[network.getNeuronCount() * lanes];
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package neat;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of networks, so genomes that are carried over or cloned don't have their network built again.
+ * Networks are found by a hash of the expressed topology and weights of a genome, and the topology is checked
+ * against the genome before a network is reused. A genome with a cached topology but other weights gets that
+ * network with its weights replaced, which is much cheaper than building one.
+ * 
+ * A network from the cache may be changed by the next call to get(), so it should only be used until then.
+ * Not thread-safe; each thread should have a cache of its own.
+ * 
+ * @author hydrozoa
+ */
+public class NetworkCache {
+	
+	private int capacity;
+	
+	private LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);	// by topology and weights, least recently used first
+	private HashMap<Long, Entry> topologies = new HashMap<>();								// most recently cached entry of each topology
+	
+	private int hits;
+	private int patches;
+	private int misses;
+	
+	/**
+	 * @param capacity	most networks the cache holds
+	 */
+	public NetworkCache(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * @return	network calculating the same as new NeuralNetwork(genome), valid until the next call
+	 */
+	public NeuralNetwork get(Genome genome) {
+		long topologyHash = TopologyKey.hash(genome);
+		long key = topologyHash * 31 + weightHash(genome);
+		
+		Entry entry = entries.get(key);
+		if (entry != null && entry.topology.matches(genome) && entry.network.hasWeights(genome)) {
+			hits++;
+			return entry.network;
+		}
+		
+		entry = topologies.get(topologyHash);
+		if (entry != null && entry.topology.matches(genome)) {
+			// the entry moves to its new weights
+			patches++;
+			entries.remove(entry.key);
+			entry.network.setWeights(genome);
+		} else {
+			misses++;
+			entry = new Entry(genome);
+			topologies.put(topologyHash, entry);
+		}
+		entry.key = key;
+		entries.put(key, entry);
+		
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (entries.size() > capacity) {
+			Entry evicted = eldest.next();
+			eldest.remove();
+			topologies.remove(evicted.topology.hash(), evicted);
+		}
+		return entry.network;
+	}
+	
+	/**
+	 * @return	no. of networks returned as they were cached
+	 */
+	public int getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return	no. of networks returned after replacing the weights of a cached network
+	 */
+	public int getPatches() {
+		return patches;
+	}
+	
+	/**
+	 * @return	no. of networks built
+	 */
+	public int getMisses() {
+		return misses;
+	}
+	
+	private static long weightHash(Genome genome) {
+		long hash = 0;
+		for (int c = 0; c < genome.connectionCount(); c++) {
+			if (genome.isExpressed(c)) {
+				hash = hash * 31 + Float.floatToIntBits(genome.weight(c));
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * A cached network, with the topology it was built for.
+	 */
+	private static class Entry {
+		
+		private long key;
+		private TopologyKey topology;
+		private NeuralNetwork network;
+		
+		private Entry(Genome genome) {
+			this.topology = new TopologyKey(genome);
+			this.network = new NeuralNetwork(genome);
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package neat;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+/**
+ * Generates a class calculating one particular network as straight-line code: every neuron is a local variable,
+ * every weight a constant, and neurons are calculated in the order of the network's schedule. With no arrays
+ * to index, the JIT can keep the whole calculation in registers. Results are identical bit for bit to those of
+ * {@link NeuralNetwork}, as each neuron sums its inputs in the same order.
+ * 
+ * Classes are defined as hidden classes where the JVM supports them (Java 15 on), and otherwise by a class loader
+ * of their own. Either way a class is unloaded once its network is no longer referenced.
+ * 
+ * The JIT doesn't compile methods beyond a certain size, so networks needing more code than that are not compiled.
+ * 
+ * @author hydrozoa
+ */
+class NetworkCompiler {
+	
+	private static final int MAX_CODE = 8000;					// HotSpot's HugeMethodLimit
+	
+	private static final String NAME = "neat/CompiledNetwork$Code";
+	
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final Method DEFINE_HIDDEN_CLASS = defineHiddenClass();
+	private static final Object NO_OPTIONS = DEFINE_HIDDEN_CLASS == null ? null : Array.newInstance(DEFINE_HIDDEN_CLASS.getParameterTypes()[2].getComponentType(), 0);
+	
+	/* Locals of the generated method; neuron n is local FIRST_NEURON + n, holding its sum, then its output */
+	private static final int INPUT = 1;
+	private static final int OUTPUT = 2;
+	private static final int FIRST_NEURON = 3;
+	
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private int poolCount = 1;
+	private HashMap<String, Integer> utf8s = new HashMap<>();
+	private HashMap<Integer, Integer> floats = new HashMap<>();
+	
+	private ByteArrayOutputStream code = new ByteArrayOutputStream();
+	
+	/**
+	 * @param inputCount	input neurons occupy indices [0, inputCount)
+	 * @param output		indices of output neurons
+	 * @param edgeStart		outgoing edges of neuron n are [edgeStart[n], edgeStart[n+1]), neurons being in calculation order
+	 * @param edgeTarget	index of the neuron receiving each edge
+	 * @param edgeWeight	weight of each edge
+	 * @param activation	activation function of the neurons
+	 * @return				instance of the generated class, or null if the network is too large
+	 */
+	static CompiledNetwork compile(int inputCount, int[] output, int[] edgeStart, int[] edgeTarget, float[] edgeWeight, Activation activation) {
+		NetworkCompiler compiler = new NetworkCompiler();
+		if (!compiler.calculate(inputCount, output, edgeStart, edgeTarget, edgeWeight, activation)) {
+			return null;
+		}
+		byte[] bytes = compiler.classFile(FIRST_NEURON + edgeStart.length - 1);
+		try {
+			Class<?> type;
+			if (DEFINE_HIDDEN_CLASS != null) {
+				type = ((MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(LOOKUP, bytes, true, NO_OPTIONS)).lookupClass();
+			} else {
+				type = new Loader().define(bytes);
+			}
+			return (CompiledNetwork) type.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not define compiled network", e);
+		}
+	}
+	
+	/**
+	 * @return	Lookup.defineHiddenClass(), or null if the JVM is older than Java 15
+	 */
+	private static Method defineHiddenClass() {
+		try {
+			Class<?> options = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			return MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, Array.newInstance(options, 0).getClass());
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Loads a single class, so the class can be unloaded along with its loader.
+	 */
+	private static class Loader extends ClassLoader {
+		
+		private Loader() {
+			super(NetworkCompiler.class.getClassLoader());
+		}
+		
+		private Class<?> define(byte[] bytes) {
+			return defineClass(NAME.replace('/', '.'), bytes, 0, bytes.length);
+		}
+	}
+	
+	/**
+	 * Emits the code of calculate(float[] input, float[] output), mirroring NeuralNetwork.calculate().
+	 * 
+	 * @return	false if the code would be too large
+	 */
+	private boolean calculate(int inputCount, int[] output, int[] edgeStart, int[] edgeTarget, float[] edgeWeight, Activation activation) {
+		int neuronCount = edgeStart.length - 1;
+		int exp = methodref("java/lang/Math", "exp", "(D)D");
+		int exponent = doubleConstant(-4.9d);
+		int approximation = activation == Activation.EXACT ? 0 : methodref("neat/Activation", activation == Activation.LOOKUP ? "lookup" : "polynomial", "(F)F");
+		
+		// input neurons have a single input slot, summed onto 0f like any other neuron
+		for (int n = 0; n < neuronCount; n++) {
+			op(0x0b);							// fconst_0
+			if (n < inputCount) {
+				op(0x2a + INPUT);				// aload_1
+				pushInt(n);
+				op(0x30);						// faload
+				op(0x62);						// fadd
+			}
+			local(0x38, FIRST_NEURON + n);		// fstore
+		}
+		
+		for (int n = 0; n < neuronCount; n++) {
+			if (activation == Activation.EXACT) {
+				// (float)(1f/( 1f + Math.exp(-4.9d*in))), inlined
+				op(0x0f);						// dconst_1
+				op(0x0f);						// dconst_1
+				op(0x14);						// ldc2_w
+				u2(code, exponent);
+				local(0x17, FIRST_NEURON + n);	// fload
+				op(0x8d);						// f2d
+				op(0x6b);						// dmul
+				op(0xb8);						// invokestatic
+				u2(code, exp);
+				op(0x63);						// dadd
+				op(0x6f);						// ddiv
+				op(0x90);						// d2f
+			} else {
+				local(0x17, FIRST_NEURON + n);	// fload
+				op(0xb8);						// invokestatic
+				u2(code, approximation);
+			}
+			local(0x38, FIRST_NEURON + n);		// fstore
+			
+			for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++) {
+				local(0x17, FIRST_NEURON + edgeTarget[e]);
+				local(0x17, FIRST_NEURON + n);
+				pushFloat(edgeWeight[e]);
+				op(0x6a);						// fmul
+				op(0x62);						// fadd
+				local(0x38, FIRST_NEURON + edgeTarget[e]);
+			}
+			if (code.size() > MAX_CODE) {
+				return false;
+			}
+		}
+		
+		for (int i = 0; i < output.length; i++) {
+			op(0x2a + OUTPUT);					// aload_2
+			pushInt(i);
+			local(0x17, FIRST_NEURON + output[i]);
+			op(0x51);							// fastore
+		}
+		op(0xb1);								// return
+		return code.size() <= MAX_CODE;
+	}
+	
+	private byte[] classFile(int maxLocals) {
+		int thisClass = classref(NAME);
+		int superClass = classref("java/lang/Object");
+		int compiledNetwork = classref("neat/CompiledNetwork");
+		int superConstructor = methodref("java/lang/Object", "<init>", "()V");
+		int constructor = utf8("<init>");
+		int noArguments = utf8("()V");
+		int calculate = utf8("calculate");
+		int calculateType = utf8("([F[F)V");
+		int codeAttribute = utf8("Code");
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		u2(out, 0xCAFE);
+		u2(out, 0xBABE);
+		u2(out, 0);								// minor version
+		u2(out, 52);							// Java 8, so no stack map frames are needed
+		u2(out, poolCount);
+		out.writeBytes(pool.toByteArray());
+		u2(out, 0x0001 | 0x0010 | 0x0020);		// public final super
+		u2(out, thisClass);
+		u2(out, superClass);
+		u2(out, 1);
+		u2(out, compiledNetwork);
+		u2(out, 0);								// fields
+		
+		u2(out, 2);								// methods
+		byte[] init = { 0x2a, (byte) 0xb7, (byte) (superConstructor >> 8), (byte) superConstructor, (byte) 0xb1 };
+		method(out, constructor, noArguments, codeAttribute, 1, 1, init);
+		method(out, calculate, calculateType, codeAttribute, 8, maxLocals, code.toByteArray());
+		
+		u2(out, 0);								// attributes
+		return out.toByteArray();
+	}
+	
+	private static void method(ByteArrayOutputStream out, int name, int type, int codeAttribute, int maxStack, int maxLocals, byte[] code) {
+		u2(out, 0x0001);						// public
+		u2(out, name);
+		u2(out, type);
+		u2(out, 1);
+		u2(out, codeAttribute);
+		u4(out, 12 + code.length);
+		u2(out, maxStack);
+		u2(out, maxLocals);
+		u4(out, code.length);
+		out.writeBytes(code);
+		u2(out, 0);								// exception table
+		u2(out, 0);								// attributes
+	}
+	
+	private void op(int opcode) {
+		code.write(opcode);
+	}
+	
+	/**
+	 * Emits a load or store of a local, using the short form where there is one.
+	 */
+	private void local(int opcode, int index) {
+		if (index < 4) {
+			// fload_0 is 0x22, fstore_0 is 0x43
+			op((opcode == 0x17 ? 0x22 : 0x43) + index);
+		} else if (index < 256) {
+			op(opcode);
+			op(index);
+		} else {
+			op(0xc4);							// wide
+			op(opcode);
+			u2(code, index);
+		}
+	}
+	
+	private void pushInt(int value) {
+		if (value <= 5) {
+			op(0x03 + value);					// iconst_<n>
+		} else if (value < 128) {
+			op(0x10);							// bipush
+			op(value);
+		} else {
+			op(0x11);							// sipush
+			u2(code, value);
+		}
+	}
+	
+	private void pushFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		if (bits == 0 || bits == Float.floatToRawIntBits(1f) || bits == Float.floatToRawIntBits(2f)) {
+			op(0x0b + (int) value);				// fconst_<n>
+			return;
+		}
+		Integer index = floats.get(bits);
+		if (index == null) {
+			index = constant(4);
+			u4(pool, bits);
+			floats.put(bits, index);
+		}
+		if (index < 256) {
+			op(0x12);							// ldc
+			op(index);
+		} else {
+			op(0x13);							// ldc_w
+			u2(code, index);
+		}
+	}
+	
+	private int doubleConstant(double value) {
+		int index = constant(6);
+		long bits = Double.doubleToRawLongBits(value);
+		u4(pool, (int) (bits >>> 32));
+		u4(pool, (int) bits);
+		poolCount++;							// doubles take two entries
+		return index;
+	}
+	
+	private int utf8(String value) {
+		Integer index = utf8s.get(value);
+		if (index == null) {
+			index = constant(1);
+			u2(pool, value.length());			// names used here are plain ASCII
+			pool.writeBytes(value.getBytes());
+			utf8s.put(value, index);
+		}
+		return index;
+	}
+	
+	private int classref(String name) {
+		int utf8 = utf8(name);
+		int index = constant(7);
+		u2(pool, utf8);
+		return index;
+	}
+	
+	private int methodref(String owner, String name, String type) {
+		int classref = classref(owner);
+		int nameUtf8 = utf8(name);
+		int typeUtf8 = utf8(type);
+		int nameAndType = constant(12);
+		u2(pool, nameUtf8);
+		u2(pool, typeUtf8);
+		int index = constant(10);
+		u2(pool, classref);
+		u2(pool, nameAndType);
+		return index;
+	}
+	
+	/**
+	 * Starts a constant pool entry.
+	 * 
+	 * @return	index of the entry
+	 */
+	private int constant(int tag) {
+		pool.write(tag);
+		return poolCount++;
+	}
+	
+	private static void u2(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 8);
+		out.write(value);
+	}
+	
+	private static void u4(ByteArrayOutputStream out, int value) {
+		u2(out, value >>> 16);
+		u2(out, value);
+	}
+}
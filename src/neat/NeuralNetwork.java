@@ -1,283 +1,433 @@
 package neat;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 
 /**
+ * Feed-forward network compiled from a {@link Genome}.
+ *
+ * The genome's genes are scheduled once at construction: neurons are renumbered in the order
+ * they become ready (inputs first), and their outgoing connections are laid out as
+ * CSR-style edge arrays. A calculation is then a single linear pass over primitive
+ * arrays, where each neuron's sum is accumulated in exactly the order its inputs
+ * would have been fed by slot-based evaluation sweeping the neurons in order of ID,
+ * so results are identical bit for bit.
+ *
+ * Instances keep a scratch buffer and are therefore not thread-safe.
+ *
  * @author hydrozoa
  */
 public class NeuralNetwork {
-	
-    private Map<Integer, Neuron> neurons; // All neurons in genome, mapped by ID
 
-    private List<Integer> input; // IDs of input neurons
-    private List<Integer> output; // IDs of output neurons
+    /**
+     * Calculations with the same weights after which calculate() compiles the network, see compile().
+     */
+    static final int COMPILE_THRESHOLD = 10000;
 
-    private List<Neuron> unprocessed;
+    private int inputCount;     // input neurons occupy indices [0, inputCount)
+    private int[] output;       // indices of output neurons, in genome order
 
+    private int[] edgeStart;    // outgoing edges of neuron n are [edgeStart[n], edgeStart[n+1])
+    private int[] edgeTarget;   // index of the neuron receiving each edge
+    private float[] edgeWeight; // weight of each edge
+
+    private float[] values;     // per neuron: input sum, then output once the neuron is calculated
+
+    private boolean solvable;   // false if some neuron can never receive all of its inputs
+
+    private int[] connectionEdge;   // edge of each expressed connection, in the genome's order, for setting weights
+
+    private CompiledNetwork code;   // generated class doing the calculation instead, see compile()
+    private int calculations;       // since the weights were set, counting towards COMPILE_THRESHOLD
+
+    private Activation activation;
+
+    /**
+     * Network using Activation.DEFAULT.
+     */
     public NeuralNetwork(Genome genome) {
-        
-        input = new ArrayList<>();
-        output = new ArrayList<>();
-        neurons = new HashMap<>();
-        unprocessed = new LinkedList<>();
-
-        for (Integer nodeID : genome.getNodeGenes().keySet()) {
-            
-            NodeGene node = genome.getNodeGenes().get(nodeID);
-            Neuron neuron = new Neuron();
-
-            if (node.getType() == NodeGene.TYPE.INPUT) {
-                
-                neuron.addInputConnection();
-                input.add(nodeID);
+
+        this(genome, Activation.DEFAULT);
+    }
+
+    public NeuralNetwork(Genome genome, Activation activation) {
+
+        this.activation = activation;
+
+        int nodeCount = genome.nodeCount();
+
+        // neurons are first numbered by their position in the genome, which is in order of ID
+        boolean[] isInput = new boolean[nodeCount];
+        int[] slots = new int[nodeCount];   // no. of inputs each neuron waits for
+        int outputCount = 0;
+
+        for (int n = 0; n < nodeCount; n++) {
+
+            NodeGene.TYPE type = genome.nodeType(n);
+
+            if (type == NodeGene.TYPE.INPUT) {
+
+                isInput[n] = true;
+                slots[n]++;
+                inputCount++;
             }
-            
-            else if (node.getType() == NodeGene.TYPE.OUTPUT)
-                output.add(nodeID);
-            
-            neurons.put(nodeID, neuron);
+
+            else if (type == NodeGene.TYPE.OUTPUT)
+                outputCount++;
         }
 
-        for (Integer connID : genome.getConnectionGenes().keySet()) {
-            
-            ConnectionGene conn = genome.getConnectionGenes().get(connID);
-            
-            if (!conn.isExpressed())
+        // outgoing expressed connections of each neuron, in innovation order
+        IntIntMap positions = genome.nodePositions();
+        int[] outStart = new int[nodeCount + 1];
+        int edgeCount = 0;
+
+        for (int c = 0; c < genome.connectionCount(); c++) {
+
+            if (!genome.isExpressed(c))
                 continue;
-            
-            Neuron inputter = neurons.get(conn.getInNode()); // the node that leads into the connection, is the inputter to the connection
-            //System.out.println("Adding output from nodeID="+conn.getInNode()+"\t to\t nodeID="+conn.getOutNode()+"\tweight="+conn.getWeight());
-            inputter.addOutputConnection(conn.getOutNode(), conn.getWeight());
-            Neuron outputReceiver = neurons.get(conn.getOutNode()); // the node that receives from the connection, is the output receiver of the connection
-            //System.out.println("Adding input to nodeID="+conn.getOutNode());
-            outputReceiver.addInputConnection();
+
+            outStart[positions.get(genome.inNode(c), -1) + 1]++;
+            slots[positions.get(genome.outNode(c), -1)]++;
+            edgeCount++;
         }
-    }
 
-    public float[] calculate(float[] input_parameter) {
-        
-        //System.out.println("New round of calculation...");
-        
-        if (input_parameter.length != input.size())
-            throw new IllegalArgumentException("Number of inputs must match number of input neurons in genome");
+        for (int n = 0; n < nodeCount; n++)
+            outStart[n + 1] += outStart[n];
+
+        int[] outTarget = new int[edgeCount];
+        float[] outWeight = new float[edgeCount];
+        int[] next = Arrays.copyOf(outStart, nodeCount);
+        connectionEdge = new int[edgeCount];
+
+        for (int c = 0, k = 0; c < genome.connectionCount(); c++) {
 
-        for (Integer key : neurons.keySet()) {
-            
-            Neuron neuron = neurons.get(key);
-            neuron.reset();
+            if (!genome.isExpressed(c))
+                continue;
+
+            int e = next[positions.get(genome.inNode(c), -1)]++;
+            connectionEdge[k++] = e;
+            outTarget[e] = positions.get(genome.outNode(c), -1);
+            outWeight[e] = genome.weight(c);
+        }
+
+        int[] order = schedule(isInput, slots, outStart, outTarget);
+        solvable = order != null;
+
+        if (!solvable) {
+
+            order = new int[nodeCount];
+
+            for (int n = 0; n < nodeCount; n++)
+                order[n] = n;
         }
 
-        unprocessed.clear();
-        unprocessed.addAll(neurons.values());
-
-        // ready the inputs
-        for (int i = 0; i < input_parameter.length; i++) { // loop through each input
-            
-            Neuron inputNeuron = neurons.get(input.get(i));
-            //System.out.println("Feeding input ("+input_parameter[i]+") into input neuron (id="+input.get(i)+")");
-            
-            inputNeuron.feedInput(input_parameter[i]); // input neurons only have one input, so we know they're ready for calculation
-            inputNeuron.calculate();
-            
-            //System.out.println("Calculating node="+input.get(i)+"   result="+inputNeuron.output);
-
-            for (int k = 0; k < inputNeuron.outputIDs.length; k++) { // loop through receivers of this input
-                
-                Neuron receiver = neurons.get(inputNeuron.outputIDs[k]);
-                //System.out.println("Feeding input ("+inputNeuron.getOutput()*inputNeuron.outputWeights[k]+") into inputneuron (id="+inputNeuron.outputIDs[k]+")");
-                receiver.feedInput(inputNeuron.getOutput()*inputNeuron.outputWeights[k]); // add the input directly to the next neuron, using the correct weight for the connection
+        // renumber neurons by their position in the schedule
+        int[] index = new int[nodeCount];
+
+        for (int i = 0; i < nodeCount; i++)
+            index[order[i]] = i;
+
+        output = new int[outputCount];
+
+        for (int n = 0, i = 0; n < nodeCount; n++)
+            if (genome.nodeType(n) == NodeGene.TYPE.OUTPUT)
+                output[i++] = index[n];
+
+        edgeStart = new int[nodeCount + 1];
+        edgeTarget = new int[edgeCount];
+        edgeWeight = new float[edgeCount];
+
+        int[] moved = new int[edgeCount];  // edge by its position before renumbering
+        int e = 0;
+
+        for (int i = 0; i < nodeCount; i++) {
+
+            edgeStart[i] = e;
+
+            for (int out = outStart[order[i]]; out < outStart[order[i] + 1]; out++) {
+
+                edgeTarget[e] = index[outTarget[out]];
+                edgeWeight[e] = outWeight[out];
+                moved[out] = e;
+                e++;
             }
-            
-            unprocessed.remove(inputNeuron);
+        }
+
+        edgeStart[nodeCount] = e;
+
+        for (int k = 0; k < edgeCount; k++)
+            connectionEdge[k] = moved[connectionEdge[k]];
+
+        values = new float[nodeCount];
+    }
+
+    /**
+     * Replays the readiness rules of slot-based evaluation without any values: input neurons
+     * first, then repeated sweeps over the remaining neurons, calculating each one as soon
+     * as all its inputs have been fed.
+     *
+     * @return  positions in the genome of all neurons in calculation order, or null if the network can't be solved
+     */
+    private static int[] schedule(boolean[] isInput, int[] slots, int[] outStart, int[] outTarget) {
+
+        int nodeCount = slots.length;
+        int[] fed = new int[nodeCount];
+
+        int[] order = new int[nodeCount];
+        int scheduled = 0;
+
+        int[] unprocessed = new int[nodeCount];
+        int remaining = 0;
+
+        for (int n = 0; n < nodeCount; n++) {
+
+            if (isInput[n])
+                scheduled = feed(n, order, scheduled, fed, outStart, outTarget);
+
+            else
+                unprocessed[remaining++] = n;
         }
 
         int loops = 0;
-        
-        while (unprocessed.size() > 0) {
+
+        while (remaining > 0) {
 
             loops++;
 
-            if (loops > 1000) {
-                //System.out.println("Can't solve network... Giving up to return null");
+            if (loops > 1000)
                 return null;
-            }
-
-            Iterator<Neuron> it = unprocessed.iterator();
-            while (it.hasNext()) {
 
-                Neuron n = it.next();
+            // neurons that aren't ready yet are kept in order for the next sweep
+            int kept = 0;
 
-                if (n.isReady()) {						// if neuron has all inputs, calculate the neuron
-                    n.calculate();
-                    //System.out.println("Output value = "+n.getOutput());
+            for (int i = 0; i < remaining; i++) {
 
-                    for (int i = 0; i < n.outputIDs.length; i++) {
+                int n = unprocessed[i];
 
-                        int receiverID = n.outputIDs[i];
-                        float receiverValue = n.output * n.outputWeights[i];
-                        //System.out.println("Feeding input ("+receiverValue+") into inputneuron (id="+receiverID+")");
-                        neurons.get(receiverID).feedInput(receiverValue);
-                    }
+                if (fed[n] == slots[n])
+                    scheduled = feed(n, order, scheduled, fed, outStart, outTarget);
 
-                    it.remove();
-                }
+                else
+                    unprocessed[kept++] = n;
             }
+
+            // another sweep would not change anything
+            if (kept == remaining)
+                return null;
+
+            remaining = kept;
         }
-        //System.out.println("Solved the network after "+loops+" loops");
 
-        // copy output from output neurons, and copy it into array
-        float[] outputs = new float[output.size()];
+        return order;
+    }
 
-        for (int i = 0; i < output.size(); i++)
-            outputs[i] = neurons.get(output.get(i)).getOutput();
+    private static int feed(int n, int[] order, int scheduled, int[] fed, int[] outStart, int[] outTarget) {
 
-        return outputs;
+        order[scheduled] = n;
+
+        for (int e = outStart[n]; e < outStart[n + 1]; e++)
+            fed[outTarget[e]]++;
+
+        return scheduled + 1;
     }
 
-    public static class Neuron {
+    /**
+     * Replaces the weights with those of a genome with the same expressed connections, in the same order,
+     * as the genome this network was built from. Much cheaper than building a new network.
+     */
+    void setWeights(Genome genome) {
 
-        private float output;
-        private Float[] inputs;
+        for (int c = 0, k = 0; c < genome.connectionCount(); c++)
+            if (genome.isExpressed(c))
+                edgeWeight[connectionEdge[k++]] = genome.weight(c);
 
-        private int[] outputIDs;
-        private float[] outputWeights;
+        // weights are constants of the generated class, so new weights have to be calculated often enough again
+        code = null;
+        calculations = 0;
+    }
 
-        public Neuron() {
+    /**
+     * Generates a class of its own doing the calculation of this network as straight-line code, which
+     * gives the same results faster once the JIT has compiled it. Generating and warming up the class
+     * is costly though, so it is only worth it for networks that are calculated many thousands of times.
+     * calculate() does it once a network has been calculated COMPILE_THRESHOLD times with the same weights.
+     * Only calculate() counts, not calculations in a NetworkBatch, so in the snake game that only happens
+     * when Snakes decide with their network instead of a Policy table (Genetics.TABULATE_POLICY off).
+     *
+     * @return  false if the network can't be solved or is too large to be compiled, in which case it isn't
+     */
+    public boolean compile() {
+
+        if (solvable && code == null)
+            code = NetworkCompiler.compile(inputCount, output, edgeStart, edgeTarget, edgeWeight, activation);
+
+        return code != null;
+    }
 
-            inputs = new Float[0];
-            outputIDs = new int[0];
-            outputWeights = new float[0];
-        }
+    /**
+     * @return  whether the weights are those of a genome with the same expressed connections as this network
+     */
+    boolean hasWeights(Genome genome) {
 
-        /** 
-         * Adds a connection from this neuron to another neuron
-         * @param outputID 	ID of the target neuron
-         * @param weight	Weight on this connection
-         */
-        public void addOutputConnection(int outputID, float weight) {
+        for (int c = 0, k = 0; c < genome.connectionCount(); c++)
+            if (genome.isExpressed(c) && Float.floatToIntBits(edgeWeight[connectionEdge[k++]]) != Float.floatToIntBits(genome.weight(c)))
+                return false;
 
-            int[] nOutputIDs = new int[outputIDs.length+1]; // make a new array, slightly larger, to make room
+        return true;
+    }
 
-            for (int i = 0; i < outputIDs.length; i++)	// copy over old array
-                nOutputIDs[i] = outputIDs[i];
+    public float[] calculate(float[] input_parameter) {
 
-            nOutputIDs[outputIDs.length] = outputID;		// add new value at the end
-            outputIDs = nOutputIDs;
+        return calculate(input_parameter, new float[output.length]);
+    }
 
-            float[] nOutputWeights = new float[outputWeights.length+1];	// make a new array, slightly larger, to make room
+    /**
+     * Calculates the network without allocating.
+     *
+     * @param input_parameter   one value per input neuron
+     * @param outputs           receives one value per output neuron
+     * @return                  outputs, or null if the network can't be solved
+     */
+    public float[] calculate(float[] input_parameter, float[] outputs) {
 
-            for (int i = 0; i < outputWeights.length; i++)
-                nOutputWeights[i] = outputWeights[i];
+        if (input_parameter.length != inputCount)
+            throw new IllegalArgumentException("Number of inputs must match number of input neurons in genome");
 
-            nOutputWeights[outputWeights.length] = weight;
-            outputWeights = nOutputWeights;
-        }
+        if (outputs.length != output.length)
+            throw new IllegalArgumentException("Number of outputs must match number of output neurons in genome");
 
-        /** 
-         * Adds a connection to this neuron from another neuron
-         */
-        public void addInputConnection() {
+        if (!solvable)
+            return null;
 
-            //System.out.println("Adding input connection, current length is "+inputs.length);
-            Float[] nInputs = new Float[inputs.length+1];
+        if (code == null && ++calculations == COMPILE_THRESHOLD)
+            compile();
 
-            for (int i = 0; i < nInputs.length;i++)
-                nInputs[i] = null;
+        if (code != null) {
 
-            this.inputs = nInputs;
-            //System.out.println("Finished adding input connection, current length is "+inputs.length);
+            code.calculate(input_parameter, outputs);
+            return outputs;
         }
 
-        /*
-         * Takes all the inputs, and calculates them into an output
-         * This can only happen if the neuron {@link #isReady() isReady}
-         * @return 
-         */
-        public float calculate() {
+        float[] values = this.values;
 
-            float sum = 0f;
+        // input neurons have a single input slot, summed onto 0f like any other neuron
+        for (int i = 0; i < inputCount; i++)
+            values[i] = 0f + input_parameter[i];
 
-            //System.out.println(Arrays.toString(inputs));
+        Arrays.fill(values, inputCount, values.length, 0f);
 
-            for (Float f : inputs)
-                sum += f;
+        for (int n = 0; n < values.length; n++) {
 
-            output = sigmoidActivationFunction(sum);
+            float value = activation.apply(values[n]);
+            values[n] = value;
 
-            return output;
+            for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++)
+                values[edgeTarget[e]] += value * edgeWeight[e];
         }
 
-        /**
-         * If a neuron is ready, it has all the needed inputs to do calculation
-         * @return true if ready
-         */
-        public boolean isReady() {
+        for (int i = 0; i < output.length; i++)
+            outputs[i] = values[output[i]];
 
-            boolean foundNull = false;
+        return outputs;
+    }
 
-            for (Float f : inputs) {
+    /**
+     * Calculates several networks with the topology of this one at once, one per lane. Lane j has weight
+     * weights[e * lanes + j] for edge e and value values[n * lanes + j] for neuron n, so every step is a loop
+     * over lanes that the JIT can vectorize. Each lane gives the same results as calculate() would.
+     *
+     * @param inputs    row-major matrix with one value per input neuron in each row
+     * @param outputs   row-major matrix receiving one value per output neuron in each row, NaN if the network can't be solved
+     * @param rows      row of each lane
+     * @param weights   weights of each lane, see setWeights(Genome, float[], int, int)
+     * @param values    scratch space for no. of neurons * no. of lanes values
+     */
+    void calculate(float[] inputs, float[] outputs, int[] rows, float[] weights, float[] values) {
 
-                if (f == null) {
+        int lanes = rows.length;
 
-                    foundNull = true;
-                    break;
-                }
-            }
-            
-            return !foundNull;
+        if (!solvable) {
+
+            for (int j = 0; j < lanes; j++)
+                Arrays.fill(outputs, rows[j] * output.length, (rows[j] + 1) * output.length, Float.NaN);
+
+            return;
         }
 
-        /**
-         * Adds an input to the neuron in the first slot available
-         */
-        public void feedInput(float input) {
-            
-            //System.out.println("Feeding input\tInput slots total: "+inputs.length);
-            boolean foundSlot = false;
-            
-            for (int i = 0; i < inputs.length; i++) {
-                
-                if (inputs[i] == null) {
-                    
-                    inputs[i] = input;
-                    foundSlot = true;
-                    break;
-                }
+        for (int i = 0; i < inputCount; i++)
+            for (int j = 0; j < lanes; j++)
+                values[i * lanes + j] = 0f + inputs[rows[j] * inputCount + i];
+
+        Arrays.fill(values, inputCount * lanes, this.values.length * lanes, 0f);
+
+        for (int n = 0; n < this.values.length; n++) {
+
+            int source = n * lanes;
+
+            for (int j = 0; j < lanes; j++)
+                values[source + j] = activation.apply(values[source + j]);
+
+            for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++) {
+
+                int target = edgeTarget[e] * lanes;
+                int weight = e * lanes;
+
+                for (int j = 0; j < lanes; j++)
+                    values[target + j] += values[source + j] * weights[weight + j];
             }
-            
-            if (!foundSlot)
-                throw new RuntimeException("No input slot ready for input. Input array: "+Arrays.toString(inputs));
         }
 
-        /**
-         * @return	Output of this neuron
-         */
-        public float getOutput() {
-            
-            return output;
-        }
+        for (int i = 0; i < output.length; i++)
+            for (int j = 0; j < lanes; j++)
+                outputs[rows[j] * output.length + i] = values[output[i] * lanes + j];
+    }
+
+    /**
+     * Sets the weights of one lane for calculating several networks at once.
+     *
+     * @param genome    genome with the same expressed connections, in the same order, as the genome this network was built from
+     * @param weights   weights of all lanes, holding no. of expressed connections * no. of lanes values
+     */
+    void setWeights(Genome genome, float[] weights, int lane, int lanes) {
+
+        for (int c = 0, k = 0; c < genome.connectionCount(); c++)
+            if (genome.isExpressed(c))
+                weights[connectionEdge[k++] * lanes + lane] = genome.weight(c);
+    }
 
-        /**
-         * Resets the inputs on this neuron, as well as the calculation
-         */
-        public void reset() {
+    /**
+     * @return  Number of neurons
+     */
+    int getNeuronCount() {
 
-            for (int i = 0; i < inputs.length; i++)
-                inputs[i] = null;
+        return values.length;
+    }
 
-            output = 0f;
-        }
+    /**
+     * @return  Number of edges, one per expressed connection
+     */
+    int getEdgeCount() {
 
-        /* Takes any float, and returns a value between 0 and 1. 0f returns 0.5f */
-        private float sigmoidActivationFunction(float in) {
+        return edgeTarget.length;
+    }
 
-            return (float)(1f/( 1f + Math.exp(-4.9d*in)));
-        }
+    public Activation getActivation() {
+
+        return activation;
+    }
+
+    /**
+     * @return  Number of input neurons
+     */
+    public int getInputCount() {
+
+        return inputCount;
+    }
+
+    /**
+     * @return  Number of output neurons
+     */
+    public int getOutputCount() {
+
+        return output.length;
     }
 }
@@ -0,0 +1,48 @@
+package neat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of genomes whose compatibility distance to the species' representative is below DT.
+ * Genomes only compete for offspring within their species, so new structures get a few generations
+ * to optimize their weights before they have to compete with the whole population.
+ * 
+ * @author hydrozoa
+ */
+public class Species {
+	
+	private Genome representative;									// genome new genomes are compared to
+	private List<FitnessGenome> members = new ArrayList<>();		// genomes of the current generation, fittest first
+	private float adjustedFitness;									// sum of the members' shared fitness
+	
+	public Species(Genome representative) {
+		this.representative = representative;
+	}
+	
+	public Genome getRepresentative() {
+		return representative;
+	}
+	
+	void setRepresentative(Genome representative) {
+		this.representative = representative;
+	}
+	
+	/**
+	 * @return	Genomes of the current generation in this species, fittest first
+	 */
+	public List<FitnessGenome> getMembers() {
+		return members;
+	}
+	
+	/**
+	 * @return	Sum of the fitness of the members, each divided by the number of members
+	 */
+	public float getAdjustedFitness() {
+		return adjustedFitness;
+	}
+	
+	void setAdjustedFitness(float adjustedFitness) {
+		this.adjustedFitness = adjustedFitness;
+	}
+}
@@ -0,0 +1,374 @@
+package neat;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency lists and a topological order of the nodes of a genome, kept up to date while connections and nodes
+ * are added by mutation. A new connection that goes forward in the order can't create a cycle, so most checks are
+ * a comparison of ranks. A connection going backwards only searches the nodes ranked between its ends, and reorders
+ * them if it's possible (Pearce-Kelly dynamic topological sort).
+ *
+ * Input nodes always come first and output nodes last, since nothing connects into an input or out of an output.
+ * Disabled connections are part of the order too, as crossover may enable them again.
+ * Nodes are referred to by their position among the genome's node genes.
+ *
+ * @author hydrozoa
+ */
+class Topology {
+
+	private int nodeCount;
+	private int inputCount;
+	private int outputCount;
+
+	/* Nodes are only ever added at the end, so these never change and are shared by copies */
+	private int[] laterInputs;	// inputs after each node, by position in the genome
+	private int[] laterOutputs;	// outputs after each node, by position in the genome
+
+	private int[] rank;			// position of each node in the order
+	private int[] order;		// node at each position of the order
+
+	private int[][] out;		// nodes each node connects to
+	private int[] outCount;
+	private int[][] in;			// nodes connecting to each node
+	private int[] inCount;
+
+	/* Scratch space of addConnection() */
+	private int[] mark;			// nodes visited by the current search have the current stamp
+	private int stamp;
+	private int[] stack;
+	private int[] forward;		// nodes reachable from the end of the new connection, ranked before its start
+	private int[] backward;		// nodes reaching the start of the new connection, ranked after its end
+	private int[] ranks;
+
+	Topology(Genome genome) {
+		int count = genome.nodeCount();
+		int capacity = Math.max(8, count * 2);
+
+		rank = new int[capacity];
+		order = new int[capacity];
+		out = new int[capacity][];
+		outCount = new int[capacity];
+		in = new int[capacity][];
+		inCount = new int[capacity];
+
+		for (int n = 0; n < count; n++) {
+			out[n] = new int[4];
+			in[n] = new int[4];
+		}
+		nodeCount = count;
+
+		IntIntMap positions = genome.nodePositions();
+		for (int c = 0; c < genome.connectionCount(); c++) {
+			link(positions.get(genome.inNode(c), -1), positions.get(genome.outNode(c), -1));
+		}
+
+		/* Inputs, then hidden nodes in an order where every connection goes forward, then outputs */
+		int ranked = 0;
+		for (int n = 0; n < count; n++) {
+			if (genome.nodeType(n) == NodeGene.TYPE.INPUT) {
+				order[ranked++] = n;
+			}
+		}
+		inputCount = ranked;
+		int[] waiting = new int[count];			// hidden nodes each hidden node still waits for
+		for (int n = 0; n < count; n++) {
+			for (int i = 0; i < inCount[n]; i++) {
+				if (genome.nodeType(in[n][i]) == NodeGene.TYPE.HIDDEN) {
+					waiting[n]++;
+				}
+			}
+		}
+		int first = ranked;
+		for (int n = 0; n < count; n++) {
+			if (genome.nodeType(n) == NodeGene.TYPE.HIDDEN && waiting[n] == 0) {
+				order[ranked++] = n;
+			}
+		}
+		for (int i = first; i < ranked; i++) {
+			int n = order[i];
+			for (int j = 0; j < outCount[n]; j++) {
+				int next = out[n][j];
+				if (genome.nodeType(next) == NodeGene.TYPE.HIDDEN && --waiting[next] == 0) {
+					order[ranked++] = next;
+				}
+			}
+		}
+		for (int n = 0; n < count; n++) {
+			// a cycle, which mutation never makes, leaves its nodes unranked; they go last to keep the order complete
+			if (genome.nodeType(n) == NodeGene.TYPE.HIDDEN && waiting[n] > 0) {
+				order[ranked++] = n;
+			}
+		}
+		for (int n = 0; n < count; n++) {
+			if (genome.nodeType(n) == NodeGene.TYPE.OUTPUT) {
+				order[ranked++] = n;
+				outputCount++;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			rank[order[i]] = i;
+		}
+
+		laterInputs = new int[count];
+		laterOutputs = new int[count];
+		for (int n = count - 2; n >= 0; n--) {
+			laterInputs[n] = laterInputs[n + 1] + (genome.nodeType(n + 1) == NodeGene.TYPE.INPUT ? 1 : 0);
+			laterOutputs[n] = laterOutputs[n + 1] + (genome.nodeType(n + 1) == NodeGene.TYPE.OUTPUT ? 1 : 0);
+		}
+
+		mark = new int[capacity];
+		stack = new int[capacity];
+		forward = new int[capacity];
+		backward = new int[capacity];
+		ranks = new int[capacity];
+	}
+
+	/**
+	 * Copies another genome's topology, for a genome with the same nodes in the same positions and the same connections.
+	 */
+	Topology(Topology toBeCopied) {
+		nodeCount = toBeCopied.nodeCount;
+		inputCount = toBeCopied.inputCount;
+		outputCount = toBeCopied.outputCount;
+		laterInputs = toBeCopied.laterInputs;
+		laterOutputs = toBeCopied.laterOutputs;
+
+		int capacity = toBeCopied.rank.length;
+		rank = Arrays.copyOf(toBeCopied.rank, capacity);
+		order = Arrays.copyOf(toBeCopied.order, capacity);
+		out = new int[capacity][];
+		outCount = Arrays.copyOf(toBeCopied.outCount, capacity);
+		in = new int[capacity][];
+		inCount = Arrays.copyOf(toBeCopied.inCount, capacity);
+		for (int n = 0; n < nodeCount; n++) {
+			out[n] = Arrays.copyOf(toBeCopied.out[n], Math.max(4, outCount[n] + 2));
+			in[n] = Arrays.copyOf(toBeCopied.in[n], Math.max(4, inCount[n] + 2));
+		}
+
+		mark = new int[capacity];
+		stack = new int[capacity];
+		forward = new int[capacity];
+		backward = new int[capacity];
+		ranks = new int[capacity];
+	}
+
+	int nodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return	whether there is a connection between two nodes, in either direction
+	 */
+	boolean connected(int a, int b) {
+		return contains(out[a], outCount[a], b) || contains(out[b], outCount[b], a);
+	}
+
+	/**
+	 * Counts the nodes after a node, by position in the genome, that a new connection can join it to: all of them,
+	 * except nodes it's already connected to, and other inputs if it's an input or other outputs if it's an output.
+	 * Pairs are counted by position rather than rank, so they don't depend on how the order came about.
+	 * Takes O(connections of the node).
+	 */
+	int candidatesAfter(int node) {
+		int count = nodeCount - node - 1;
+		if (isInput(node)) {
+			count -= node < laterInputs.length ? laterInputs[node] : 0;
+		} else if (isOutput(node)) {
+			count -= node < laterOutputs.length ? laterOutputs[node] : 0;
+		}
+
+		// each node it's connected to is only counted once, even if the genome connects them twice
+		stamp++;
+		count -= countCandidates(node, out[node], outCount[node]);
+		count -= countCandidates(node, in[node], inCount[node]);
+		return count;
+	}
+
+	/**
+	 * @param index	index among the nodes counted by candidatesAfter(), in order of position
+	 * @return		node that a new connection can join the given node to
+	 */
+	int candidateAfter(int node, int index) {
+		for (int n = node + 1; n < nodeCount; n++) {
+			if (!sameEnd(node, n) && !connected(node, n) && index-- == 0) {
+				return n;
+			}
+		}
+		throw new IllegalArgumentException("Node has no candidate no. " + index);
+	}
+
+	/**
+	 * @return	no. of nodes not counted before that come after a node and would otherwise be its candidates
+	 */
+	private int countCandidates(int node, int[] nodes, int count) {
+		int counted = 0;
+		for (int i = 0; i < count; i++) {
+			int n = nodes[i];
+			if (n > node && !sameEnd(node, n) && mark[n] != stamp) {
+				mark[n] = stamp;
+				counted++;
+			}
+		}
+		return counted;
+	}
+
+	/**
+	 * @return	whether both nodes are inputs, or both outputs, which are never connected
+	 */
+	private boolean sameEnd(int a, int b) {
+		return (isInput(a) && isInput(b)) || (isOutput(a) && isOutput(b));
+	}
+
+	private boolean isInput(int node) {
+		return rank[node] < inputCount;
+	}
+
+	private boolean isOutput(int node) {
+		return rank[node] >= nodeCount - outputCount;
+	}
+
+	/**
+	 * Adds a hidden node, ranked after all other hidden nodes. It must be the last node of the genome.
+	 *
+	 * @return	position of the node in the genome
+	 */
+	int addHiddenNode() {
+		if (nodeCount == rank.length) {
+			int capacity = nodeCount * 2;
+			rank = Arrays.copyOf(rank, capacity);
+			order = Arrays.copyOf(order, capacity);
+			out = Arrays.copyOf(out, capacity);
+			outCount = Arrays.copyOf(outCount, capacity);
+			in = Arrays.copyOf(in, capacity);
+			inCount = Arrays.copyOf(inCount, capacity);
+			mark = Arrays.copyOf(mark, capacity);
+			stack = new int[capacity];
+			forward = new int[capacity];
+			backward = new int[capacity];
+			ranks = new int[capacity];
+		}
+		int node = nodeCount++;
+		out[node] = new int[4];
+		in[node] = new int[4];
+
+		// outputs move back by one to make room
+		int position = nodeCount - 1 - outputCount;
+		for (int i = nodeCount - 1; i > position; i--) {
+			order[i] = order[i - 1];
+			rank[order[i]] = i;
+		}
+		order[position] = node;
+		rank[node] = position;
+		return node;
+	}
+
+	/**
+	 * Adds a connection unless it would create a cycle, reordering nodes if it goes backwards.
+	 *
+	 * @return	false if the connection would create a cycle, in which case nothing changes
+	 */
+	boolean addConnection(int from, int to) {
+		int lower = rank[to];
+		int upper = rank[from];
+		if (lower < upper) {
+			stamp++;
+
+			// nodes reachable from 'to' that are ranked up to 'from'; reaching 'from' means a cycle
+			int forwardCount = search(to, upper, true, forward);
+			if (forwardCount < 0) {
+				return false;
+			}
+
+			// nodes that reach 'from' and are ranked from 'to' on
+			int backwardCount = search(from, lower, false, backward);
+
+			// backward nodes take the lowest of the affected ranks, keeping their relative order, then forward nodes
+			sortByRank(backward, backwardCount);
+			sortByRank(forward, forwardCount);
+			int total = 0;
+			for (int i = 0; i < backwardCount; i++) {
+				ranks[total++] = rank[backward[i]];
+			}
+			for (int i = 0; i < forwardCount; i++) {
+				ranks[total++] = rank[forward[i]];
+			}
+			Arrays.sort(ranks, 0, total);
+			for (int i = 0; i < total; i++) {
+				int node = i < backwardCount ? backward[i] : forward[i - backwardCount];
+				rank[node] = ranks[i];
+				order[ranks[i]] = node;
+			}
+		}
+		link(from, to);
+		return true;
+	}
+
+	/**
+	 * Depth-first search within a range of ranks.
+	 *
+	 * @param start		node the search starts at
+	 * @param bound		rank the search doesn't go past
+	 * @param forwards	whether to follow connections forwards, or backwards
+	 * @param found		receives the nodes found, start included
+	 * @return			no. of nodes found, or -1 if a forward search reached the node ranked at bound
+	 */
+	private int search(int start, int bound, boolean forwards, int[] found) {
+		int count = 0;
+		int top = 0;
+		stack[top++] = start;
+		mark[start] = stamp;
+		while (top > 0) {
+			int node = stack[--top];
+			found[count++] = node;
+			int[] next = forwards ? out[node] : in[node];
+			int nextCount = forwards ? outCount[node] : inCount[node];
+			for (int i = 0; i < nextCount; i++) {
+				int n = next[i];
+				if (forwards && rank[n] == bound) {
+					return -1;
+				}
+				boolean inRange = forwards ? rank[n] < bound : rank[n] > bound;
+				if (inRange && mark[n] != stamp) {
+					mark[n] = stamp;
+					stack[top++] = n;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Insertion sort, as the sets of nodes are small.
+	 */
+	private void sortByRank(int[] nodes, int count) {
+		for (int i = 1; i < count; i++) {
+			int node = nodes[i];
+			int j = i - 1;
+			while (j >= 0 && rank[nodes[j]] > rank[node]) {
+				nodes[j + 1] = nodes[j];
+				j--;
+			}
+			nodes[j + 1] = node;
+		}
+	}
+
+	private void link(int from, int to) {
+		if (outCount[from] == out[from].length) {
+			out[from] = Arrays.copyOf(out[from], outCount[from] * 2);
+		}
+		out[from][outCount[from]++] = to;
+		if (inCount[to] == in[to].length) {
+			in[to] = Arrays.copyOf(in[to], inCount[to] * 2);
+		}
+		in[to][inCount[to]++] = from;
+	}
+
+	private static boolean contains(int[] nodes, int count, int node) {
+		for (int i = 0; i < count; i++) {
+			if (nodes[i] == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,100 @@
+package neat;
+
+import java.util.Arrays;
+
+/**
+ * The expressed topology of a genome: its nodes, and the ends of its expressed connections in order.
+ * Genomes with equal keys build networks that differ only in their weights.
+ * 
+ * @author hydrozoa
+ */
+class TopologyKey {
+	
+	private long hash;
+	
+	private int[] nodes;			// id and type of each node
+	private int[] connections;		// in and out node of each expressed connection, in order
+	
+	TopologyKey(Genome genome) {
+		hash = hash(genome);
+		
+		nodes = new int[genome.nodeCount() * 2];
+		for (int n = 0; n < genome.nodeCount(); n++) {
+			nodes[n * 2] = genome.nodeId(n);
+			nodes[n * 2 + 1] = genome.nodeType(n).ordinal();
+		}
+		int count = 0;
+		for (int c = 0; c < genome.connectionCount(); c++) {
+			if (genome.isExpressed(c)) {
+				count++;
+			}
+		}
+		connections = new int[count * 2];
+		for (int c = 0, k = 0; c < genome.connectionCount(); c++) {
+			if (genome.isExpressed(c)) {
+				connections[k++] = genome.inNode(c);
+				connections[k++] = genome.outNode(c);
+			}
+		}
+	}
+	
+	/**
+	 * @return	hash of the expressed topology of a genome, without building its key
+	 */
+	static long hash(Genome genome) {
+		long hash = genome.nodeCount();
+		for (int n = 0; n < genome.nodeCount(); n++) {
+			hash = hash * 31 + genome.nodeId(n);
+			hash = hash * 31 + genome.nodeType(n).ordinal();
+		}
+		for (int c = 0; c < genome.connectionCount(); c++) {
+			if (genome.isExpressed(c)) {
+				hash = hash * 31 + genome.inNode(c);
+				hash = hash * 31 + genome.outNode(c);
+			}
+		}
+		return hash;
+	}
+	
+	long hash() {
+		return hash;
+	}
+	
+	/**
+	 * @return	whether a genome has this topology
+	 */
+	boolean matches(Genome genome) {
+		if (nodes.length != genome.nodeCount() * 2) {
+			return false;
+		}
+		for (int n = 0; n < genome.nodeCount(); n++) {
+			if (nodes[n * 2] != genome.nodeId(n) || nodes[n * 2 + 1] != genome.nodeType(n).ordinal()) {
+				return false;
+			}
+		}
+		int k = 0;
+		for (int c = 0; c < genome.connectionCount(); c++) {
+			if (genome.isExpressed(c)) {
+				if (k == connections.length || connections[k] != genome.inNode(c) || connections[k + 1] != genome.outNode(c)) {
+					return false;
+				}
+				k += 2;
+			}
+		}
+		return k == connections.length;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Long.hashCode(hash);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TopologyKey)) {
+			return false;
+		}
+		TopologyKey other = (TopologyKey) o;
+		return hash == other.hash && Arrays.equals(nodes, other.nodes) && Arrays.equals(connections, other.connections);
+	}
+}
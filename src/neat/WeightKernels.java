@@ -0,0 +1,89 @@
+package neat;
+
+import java.util.Random;
+
+/**
+ * Loops over blocks of weights, for mutating weights and comparing genomes. Each kernel does the same simple
+ * calculation for every element with no branches or calls in between, so the JIT can unroll and vectorize it,
+ * and each has a scalar reference doing the calculation one element at a time in the obvious way.
+ * 
+ * Weight mutation draws its random numbers a block at a time, two per weight whether the weight is perturbed
+ * or replaced: a uniform number deciding which, and a gaussian one for perturbing. A replaced weight reuses
+ * the uniform number, which is uniformly distributed above the perturbing probability in that case.
+ * 
+ * @author hydrozoa
+ */
+class WeightKernels {
+	
+	static final int BLOCK = 256;		// no. of elements per block
+	
+	/**
+	 * Fills a block with the random numbers for mutating weights.
+	 */
+	static void fill(Random r, float[] uniform, float[] gaussian, int count) {
+		for (int i = 0; i < count; i++) {
+			uniform[i] = r.nextFloat();
+			gaussian[i] = (float)r.nextGaussian();
+		}
+	}
+	
+	/**
+	 * Mutates a block of weights, each one being perturbed with the given probability and replaced by a new weight
+	 * between -2 and 2 otherwise.
+	 * 
+	 * @param uniform	a uniformly distributed number between 0 and 1 for each weight
+	 * @param gaussian	a normally distributed number for each weight
+	 */
+	static void mutate(float[] weights, int offset, float[] uniform, float[] gaussian, int count, float perturbing) {
+		float scale = 4f/(1f - perturbing);
+		for (int i = 0; i < count; i++) {
+			float perturbed = weights[offset + i]*gaussian[i];
+			float replaced = (uniform[i] - perturbing)*scale - 2f;
+			weights[offset + i] = uniform[i] < perturbing ? perturbed : replaced;
+		}
+	}
+	
+	/**
+	 * Scalar reference of mutate(), for one weight.
+	 */
+	static float mutated(float weight, float uniform, float gaussian, float perturbing) {
+		if (uniform < perturbing) {
+			return weight*gaussian;							// nudge the weight a random amount of a normal distribution with peak=0.0 and deviation=1
+		} else {
+			return (uniform - perturbing)*(4f/(1f - perturbing)) - 2f;	// new weight between -2 and 2
+		}
+	}
+	
+	/**
+	 * Sums the absolute differences of two blocks of weights, in four interleaved partial sums, so the additions
+	 * don't each wait for the previous one. The result may differ from the sum in order in the last bits.
+	 */
+	static float sumOfDifferences(float[] weights1, float[] weights2, int count) {
+		float sum0 = 0f;
+		float sum1 = 0f;
+		float sum2 = 0f;
+		float sum3 = 0f;
+		int i = 0;
+		for (; i + 3 < count; i += 4) {
+			sum0 += Math.abs(weights1[i] - weights2[i]);
+			sum1 += Math.abs(weights1[i + 1] - weights2[i + 1]);
+			sum2 += Math.abs(weights1[i + 2] - weights2[i + 2]);
+			sum3 += Math.abs(weights1[i + 3] - weights2[i + 3]);
+		}
+		for (; i < count; i++) {
+			sum0 += Math.abs(weights1[i] - weights2[i]);
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+	
+	/**
+	 * Scalar reference of sumOfDifferences(), summing in order.
+	 */
+	static float sumOfDifferencesInOrder(float[] weights1, float[] weights2, int count) {
+		float sum = 0f;
+		for (int i = 0; i < count; i++) {
+			sum += Math.abs(weights1[i] - weights2[i]);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,150 @@
+package snake.evolution;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+// Senses which way the Apple is from the Snake's head.
+// The angle to the Apple only depends on how far away it
+// is along each axis and on the direction of travel, so
+// every possible answer on a grid is worked out once and
+// looked up while playing.
+*/
+public class AppleSensor {
+    
+    // Which way the Apple is, relative to the direction of travel.
+    public static final int AHEAD = 0;
+    public static final int LEFT = 1;
+    public static final int RIGHT = 2;
+    
+    // Sensors by grid length, shared by every Board of that length.
+    private static final ConcurrentHashMap<Integer, AppleSensor> SENSORS = new ConcurrentHashMap<>();
+    
+    // No. of cells along one side of the grid.
+    private final int length;
+    
+    // No. of possible distances along one axis, -(length - 1) to length - 1.
+    private final int span;
+    
+    // Side of the Apple by offset along x, offset along y and direction.
+    private final byte[] sides;
+    
+    /*
+    // Default constructor.
+    //
+    // @param length: no. of cells along one side of the grid
+    */
+    private AppleSensor(int length) {
+        
+        this.length = length;
+        this.span = 2 * length - 1;
+        this.sides = new byte[span * span * 4];
+        
+        for (int dx = 1 - length; dx < length; dx++)
+            for (int dy = 1 - length; dy < length; dy++)
+                for (int direction = 0; direction < 4; direction++)
+                    sides[index(dx, dy, direction)] = (byte) side(angle(dx, dy, direction));
+    }
+    
+    // Get the sensor of a grid, building it on first use.
+    public static AppleSensor of(int length) {
+        
+        return SENSORS.computeIfAbsent(length, AppleSensor::new);
+    }
+    
+    /*
+    // Find which way the Apple is.
+    //
+    // @param head: cell of the Snake's head
+    // @param apple: cell of the Apple
+    // @param direction: direction of travel, 0-3
+    //
+    // @return AHEAD, LEFT or RIGHT.
+    */
+    public int side(int head, int apple, int direction) {
+        
+        int dx = apple / length - head / length;
+        int dy = apple % length - head % length;
+        
+        return sides[index(dx, dy, direction)];
+    }
+    
+    // Index in sides[] of an offset and direction.
+    private int index(int dx, int dy, int direction) {
+        
+        return ((dx + length - 1) * span + dy + length - 1) * 4 + direction;
+    }
+    
+    /*
+    // Bucket an angle the same way as the inputs
+    // of the neural network do.
+    //
+    // @param angle: angle returned by angle()
+    */
+    private static int side(double angle) {
+        
+        if (angle <= -45)
+            return LEFT;
+        
+        if (angle >= 45)
+            return RIGHT;
+        
+        return AHEAD;
+    }
+    
+    /*
+    // Calculate angle from Snake head
+    // to Apple.
+    //
+    // @param dx: x of Apple minus x of head
+    // @param dy: y of Apple minus y of head
+    // @param direction: direction of travel, 0-3
+    //
+    // @return - Calculated angle.
+    */
+    public static double angle(int dx, int dy, int direction) {
+        
+        // More than 180 degrees would flip right to left and vice versa.
+        double maxAngle = 180;
+        
+        // Settings radians to return value of atan2().
+        double radians = Math.atan2(dy, dx);
+        
+        // Converting radians to degrees ( atan() returns value in radians).
+        double degrees = Math.toDegrees(radians);
+        
+        // Adding 90 degrees since angle needs to be referenced from North axis.
+        double angle = degrees + 90;
+        
+        // Making sure angle isn't greater than 180.
+        if (angle > maxAngle)
+            angle = angle - 360;
+        
+        // Adds degrees to account for direction
+        // of travel of Snake.
+        switch (direction) {
+            
+            // East
+            case 1:
+                angle += 270;
+                break;
+            
+            // South
+            case 2:
+                angle += 180;
+                break;
+            
+            // West
+            case 3:
+                angle += 90;
+                break;
+            
+            default: break;
+        }
+        
+        // Making sure angle isn't greater than 180, after switch statement.
+        if (angle > maxAngle)
+            angle = angle - 360;
+        
+        return angle;
+    }
+}
@@ -0,0 +1,218 @@
+package snake.evolution;
+
+import java.util.Random;
+
+/*
+// Occupancy of a square game grid, independent of
+// anything that is drawn. A cell is occupied while
+// a part of the Snake is on it.
+//
+// Cells are stored as bits, so the default 8x8 grid
+// fits in a single long and larger grids use one long
+// per 64 cells. Free cells are also kept in a set
+// that picks one at random in constant time.
+*/
+public class Board {
+    
+    // Default no. of cells along one side.
+    public static final int LENGTH = 8;
+    
+    // No. of cells along one side.
+    private final int length;
+    
+    // No. of cells.
+    private final int area;
+    
+    // Bit (cell % 64) of words[cell / 64] is set if the
+    // cell has a Snake segment on it.
+    private final long[] words;
+    
+    /*
+    // Cells that aren't occupied are free[0] to
+    // free[freeCount - 1], in no particular order, and
+    // the occupied ones follow. slots[] holds the index
+    // of each cell in free[], so a cell changes sides
+    // by swapping it with the first occupied or last
+    // free entry.
+    */
+    private final int[] free;
+    private final int[] slots;
+    private int freeCount;
+    
+    // Cell reached from each cell by each turn, see Direction.neighbours().
+    private final int[] neighbours;
+    
+    // Side of the Apple from any cell, see AppleSensor.
+    private final AppleSensor appleSensor;
+    
+    /*
+    // Default constructor.
+    //
+    // @param length: no. of cells along one side
+    */
+    public Board(int length) {
+        
+        this.length = length;
+        this.area = length * length;
+        this.words = new long[(area + 63) >>> 6];
+        this.free = new int[area];
+        this.slots = new int[area];
+        this.freeCount = area;
+        
+        for (int i = 0; i < area; i++) {
+            
+            free[i] = i;
+            slots[i] = i;
+        }
+        
+        this.neighbours = Direction.neighbours(length);
+        this.appleSensor = AppleSensor.of(length);
+    }
+    
+    /*
+    // Checks if a position is on the grid.
+    //
+    // @return true if both x and y are between
+    // 0 and length - 1, false otherwise.
+    */
+    public boolean inBounds(int x, int y) {
+        
+        return x >= 0 && x < length && y >= 0 && y < length;
+    }
+    
+    /*
+    // Converts a position to its cell index, in the
+    // same layout as Coordinate.toTile().
+    */
+    public int cell(int x, int y) {
+        
+        return x * length + y;
+    }
+    
+    /*
+    // Find the cell reached by turning and moving once.
+    //
+    // @param cell: cell being moved from
+    // @param direction: direction of travel, 0-3
+    // @param turn: Direction.FORWARD, LEFT or RIGHT
+    //
+    // @return Index of the cell, or -1 if it's off the grid.
+    */
+    public int next(int cell, int direction, int turn) {
+        
+        return neighbours[Direction.entry(cell, direction, turn)];
+    }
+    
+    // Whether a cell is occupied.
+    public boolean isOccupied(int cell) {
+        
+        return (words[cell >>> 6] & (1L << cell)) != 0;
+    }
+    
+    // Whether the cell at a position is occupied.
+    public boolean isOccupied(int x, int y) {
+        
+        return isOccupied(cell(x, y));
+    }
+    
+    // Whether the cell at a Coordinate is occupied.
+    public boolean isOccupied(Coordinate pos) {
+        
+        return isOccupied(pos.x(), pos.y());
+    }
+    
+    // Sets a cell to occupied.
+    public void occupy(int cell) {
+        
+        if (isOccupied(cell))
+            return;
+        
+        words[cell >>> 6] |= 1L << cell;
+        
+        // Moves cell just past the free ones.
+        freeCount -= 1;
+        swap(slots[cell], freeCount);
+    }
+    
+    // Sets a cell to not occupied.
+    public void vacate(int cell) {
+        
+        if (!isOccupied(cell))
+            return;
+        
+        words[cell >>> 6] &= ~(1L << cell);
+        
+        // Moves cell to the end of the free ones.
+        swap(slots[cell], freeCount);
+        freeCount += 1;
+    }
+    
+    // Sets the cell at a Coordinate to occupied.
+    public void occupy(Coordinate pos) {
+        
+        occupy(cell(pos.x(), pos.y()));
+    }
+    
+    // Sets the cell at a Coordinate to not occupied.
+    public void vacate(Coordinate pos) {
+        
+        vacate(cell(pos.x(), pos.y()));
+    }
+    
+    // No. of occupied cells.
+    public int occupiedCount() {
+        
+        return area - freeCount;
+    }
+    
+    // No. of cells that aren't occupied.
+    public int freeCount() {
+        
+        return freeCount;
+    }
+    
+    /*
+    // Pick a random cell that isn't occupied.
+    //
+    // @param random: source of randomness
+    //
+    // @return Coordinate of the chosen cell.
+    */
+    public Coordinate randomFree(Random random) {
+        
+        int cell = free[random.nextInt(freeCount)];
+        
+        return new Coordinate(cell / length, cell % length);
+    }
+    
+    // Swap two entries of free[], keeping slots[] up to date.
+    private void swap(int i, int j) {
+        
+        int a = free[i];
+        int b = free[j];
+        
+        free[i] = b;
+        free[j] = a;
+        
+        slots[b] = i;
+        slots[a] = j;
+    }
+    
+    // Getter for appleSensor.
+    public AppleSensor appleSensor() {
+        
+        return appleSensor;
+    }
+    
+    // Getter for length.
+    public int length() {
+        
+        return length;
+    }
+    
+    // Getter for no. of cells.
+    public int area() {
+        
+        return area;
+    }
+}
@@ -21,18 +21,6 @@ public class Coordinate {
         this.yPos = yPos;
     }
     
-    /*
-    // Generates random Coordinates within bounds of
-    // game grid. Coordinate will always be at least
-    // one Tile away from the edge of the grid to
-    // ensure adequate room for the Snake's body.
-    */
-    public Coordinate() {
-        
-        xPos = (int)Math.floor(Math.random() * (Game.GRID_LENGTH - 2)) + 1;
-        yPos = (int)Math.floor(Math.random() * (Game.GRID_LENGTH - 2)) + 1;
-    }
-
     /* METHODS */
     
     /*
@@ -77,7 +65,7 @@ public class Coordinate {
     */
     public boolean outOfBounds() {
         
-        return x() < 0 || x() > Game.GRID_LENGTH - 1 || y() < 0 || y() > Game.GRID_LENGTH - 1;
+        return x() < 0 || x() > Board.LENGTH - 1 || y() < 0 || y() > Board.LENGTH - 1;
     }
     
     /*
@@ -88,7 +76,7 @@ public class Coordinate {
     */
     public int toTile() {
         
-        return xPos * Game.GRID_LENGTH + yPos;
+        return xPos * Board.LENGTH + yPos;
     }
     
     // Getter for x-coordinate.
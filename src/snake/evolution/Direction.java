@@ -0,0 +1,110 @@
+package snake.evolution;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+// Directions of travel and turns relative to them,
+// as plain ints so that moving and sensing don't
+// allocate anything.
+*/
+public class Direction {
+    
+    // Directions of travel.
+    public static final int NORTH = 0;
+    public static final int EAST = 1;
+    public static final int SOUTH = 2;
+    public static final int WEST = 3;
+    
+    // Turns relative to the direction of travel, same values as a Snake's actions.
+    public static final int FORWARD = 0;
+    public static final int LEFT = 1;
+    public static final int RIGHT = 2;
+    
+    // Change in x and y for one move in each direction (North is towards y = 0).
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { -1, 0, 1, 0 };
+    
+    // Neighbour tables by grid length, shared by every Board of that length.
+    private static final ConcurrentHashMap<Integer, int[]> NEIGHBOURS = new ConcurrentHashMap<>();
+    
+    /*
+    // Find direction of travel after a turn.
+    //
+    // @param direction: current direction of travel, 0-3
+    // @param turn: FORWARD, LEFT or RIGHT
+    //
+    // @return New direction of travel.
+    */
+    public static int turn(int direction, int turn) {
+        
+        switch (turn) {
+            
+            // Changes direction from north to west etc.
+            case LEFT: return (direction + 3) & 3;
+            
+            // Changes direction from north to east etc.
+            case RIGHT: return (direction + 1) & 3;
+            
+            default: return direction;
+        }
+    }
+    
+    // Change in x for one move in a direction.
+    public static int dx(int direction) {
+        
+        return DX[direction];
+    }
+    
+    // Change in y for one move in a direction.
+    public static int dy(int direction) {
+        
+        return DY[direction];
+    }
+    
+    /*
+    // Index of an entry in a neighbour table.
+    //
+    // @param cell: cell being moved from
+    // @param direction: direction of travel, 0-3
+    // @param turn: FORWARD, LEFT or RIGHT
+    */
+    static int entry(int cell, int direction, int turn) {
+        
+        return ((cell << 2) | direction) * 3 + turn;
+    }
+    
+    /*
+    // Get the neighbour table of a grid, building it
+    // on first use. Each entry is the cell reached by
+    // turning and moving once from a cell, or -1 if
+    // that would leave the grid.
+    //
+    // @param length: no. of cells along one side of the grid
+    */
+    static int[] neighbours(int length) {
+        
+        return NEIGHBOURS.computeIfAbsent(length, Direction::buildNeighbours);
+    }
+    
+    // Fill the neighbour table of a grid.
+    private static int[] buildNeighbours(int length) {
+        
+        int[] table = new int[length * length * 4 * 3];
+        
+        for (int x = 0; x < length; x++)
+            for (int y = 0; y < length; y++)
+                for (int direction = 0; direction < 4; direction++)
+                    for (int turn = FORWARD; turn <= RIGHT; turn++) {
+                        
+                        int heading = turn(direction, turn);
+                        int nextX = x + DX[heading];
+                        int nextY = y + DY[heading];
+                        
+                        boolean inside = nextX >= 0 && nextX < length && nextY >= 0 && nextY < length;
+                        
+                        table[entry(x * length + y, direction, turn)] = inside ? nextX * length + nextY : -1;
+                    }
+        
+        return table;
+    }
+}
@@ -6,34 +6,24 @@ import javafx.animation.AnimationTimer;
 import javafx.scene.Group;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.Node;
-import javafx.scene.robot.Robot;
 import javafx.scene.Scene;
-import static javafx.scene.input.KeyCode.*;
 
 /*
 // From NEAT package.
 // IMPORTANT: Credit for NEAT algorithm code goes to "hydrozoa".
 // Code retrieved from https://github.com/hydrozoa-yt/hydroneat
 */
-import neat.ConnectionGene;
-import neat.Counter;
 import neat.Evaluator;
-import neat.GenesisGenomeProvider;
-import neat.Genome;
-import neat.NEATConfiguration;
-import neat.NeuralNetwork;
-import neat.NodeGene;
-import neat.NodeGene.TYPE;
 
 /*
-// Class loads initial components of "Snake".
-// It also invokes methods from the Manager class
-// to update game components, when necessary.
+// Class displays games of "Snake". The rules are
+// played out by a Simulation, advanced one move
+// per tick of the move timer.
 */
 public class Game {
     
-    static final int GRID_LENGTH = 8;
-    static final int GRID_AREA = (int)Math.pow(GRID_LENGTH, 2);
+    static final int GRID_LENGTH = Board.LENGTH;
+    static final int GRID_AREA = GRID_LENGTH * GRID_LENGTH;
     
     // Dimensions of program window.
     private final int WIDTH = (GRID_LENGTH * Entity.SIDE_LENGTH) - 1; // looks weird in debug mode without -1
@@ -46,36 +36,46 @@ public class Game {
     private int speedMult = 2; // can change; default 1
     private int MOVE_DELAY = 132 / speedMult;
     
+    // Game state.
+    private Simulation simulation;
+    private Snake player;
+    
     // Game components.
     private Node[] grid;
-    private Snake player;
-    private Node apple;
+    private ArrayList<Segment> body = new ArrayList<>();
+    private Apple apple;
     private Scene scene;
     private Group group;
     private AnimationTimer moveTimer; // animation delay
-    private AnimationTimer starveTimer; // starvation delay
+    
+    // Turn requested by keystroke for the next move.
+    private int keyAction = 0;
+    
+    // Whether new key inputs are processed.
+    private boolean keyLock = false;
+    
+    // Whether Snakes with a cached fitness are being skipped,
+    // before the next Snake is loaded.
+    private boolean skipping = false;
+    
+    // Most Snakes skipped per move, so generations of Snakes
+    // with a cached fitness don't freeze the display.
+    private static final int SKIPS_PER_MOVE = 8;
     
     // Neural network objects.
     private Evaluator evaluator;
-    private NeuralNetwork net;
-    private float[] input = new float[6];
-    private float[] output = new float[3];
     
     private Random r = new Random();
     
     // Default constructor.
     public Game() {
         
-        Robot robot = new Robot();
-        
-        loadGenetics();
+        evaluator = Genetics.loadGenetics(r);
         loadGrid();
-        loadSnake();
-        loadApple();
         
         group = new Group(grid);
-        group.getChildren().addAll(player.body());
-        group.getChildren().add(apple);
+        
+        loadSnake();
         
         scene = new Scene(group, WIDTH, HEIGHT);
         
@@ -94,12 +94,28 @@ public class Game {
                     paused = !paused;
                     timersOn(!paused);
                     break;
-                    
+                
+                // Turn left on next move.
+                case LEFT:
+                    if (!keyLock) {
+                        
+                        keyLock = true;
+                        keyAction = 1;
+                    }
+                    break;
+                
+                // Turn right on next move.
+                case RIGHT:
+                    if (!keyLock) {
+                        
+                        keyLock = true;
+                        keyAction = 2;
+                    }
+                    break;
+                
                 default:
                     break;
             }
-            
-            Manager.getInput(event, player);
         });
         
         moveTimer = new Clock(MOVE_DELAY) {
@@ -107,113 +123,30 @@ public class Game {
             @Override
             public void handle() {
                 
-                /*
-                // Invoke move() method, moving the snake.
-                // If move() returns false, reset game.
-                */
-                if (!Manager.move(player, (Apple)apple, grid))
-                    reset();
-                
-                // Proceed game as normal.
-                else {
-                    
-                    if (!humanPlayer) {
-                        
-                        // Generate input[] array.
-                        input = Manager.processInput(grid, player, (Apple)apple);
-
-                        // Generate output[] array using input[].
-                        output = net.calculate(input);
-
-                        // Analyze index of largest value in output[].
-                        switch(Genetics.largest(output)) {
-
-                            /*
-                            // If first index has largest element,
-                            // Robot presses left arrow key.
-                            */
-                            case 1:
-                                robot.keyPress(LEFT); 
-                                break;
-
-                            /*
-                            // If second index has largest element,
-                            // Robot presses right arrow key.
-                            */
-                            case 2:
-                                robot.keyPress(RIGHT);
-                                break;
-
-                            default:
-                                break;
-                        }
-                    }
+                // Skip a few more Snakes instead of moving.
+                if (skipping) {
                     
-                    // If Snake moves closer toward Apple, increment score by 1.
-                    if (player.segment(0).getPos().closer(player.segment(0).lastPos(), ((Apple)apple).getPos()))
-                        player.addScore(1);
-                    
-                    // Otherwise, Snake is moving away so decrement score by 2.
-                    else
-                        player.addScore(-2);
-                    
-                    // If Snake eats Apple...
-                    if (player.onApple((Apple)apple)) {
-                        
-                        // Increment Snake health based on its score.
-                        player.addHealth(player.score());
-                        
-                        player.resetScore();
-                        player.grow();
-                        
-                        // Update game grid.
-                        grid = Manager.updateGrid(grid, player, (Apple)apple);
-
-                        if (player.size() != GRID_AREA) {
-
-                            // Updates previous and current position of apple.
-                            ((Apple)apple).setLastPos(((Apple)apple).getPos());
-                            ((Apple)apple).setPos(getAppleSpawn());
-
-                            // Snake is removed and added back to root to show updated body.
-                            group.getChildren().removeAll(player.body());
-                            group.getChildren().addAll(player.body());
-                        }
-
-                        // Otherwise, Snake reaches max length...
-                        else {
-                            
-                            // Apple is removed from game as there's no space to spawn it.
-                            group.getChildren().remove(apple);
-
-                            // Snake is removed and added back to root to show updated body.
-                            group.getChildren().removeAll(player.body());
-                            group.getChildren().addAll(player.body());
-                            
-                            reset();
-                        }
-                    }
+                    skipCached();
+                    return;
                 }
                 
-                // Update grid with new occupied Tiles.
-                grid = Manager.updateGrid(grid, player, (Apple)apple);
+                // Snake decides unless a human is playing.
+                int action = humanPlayer ? keyAction : player.decide(simulation.sense());
                 
-                // Lock no longer active as all processing has finished.
-                Manager.toggleLock(false);
-            }
-        };
-        
-        starveTimer = new Clock(5280 / speedMult) {
-            
-            @Override
-            public void handle() {
-                
-                // If Snake hasn't eaten, reset game.
-                if (!player.wellFed())
+                /*
+                // Advance the game by one move.
+                // If the game is over, reset game.
+                */
+                if (!simulation.step(action))
                     reset();
                 
-                // Set Snake to hungry.
-                player.setWellFed(false);
+                // Otherwise, show updated positions.
+                else
+                    render();
+                
+                // Lock no longer active as all processing has finished.
+                keyAction = 0;
+                keyLock = false;
             }
         };
         
@@ -236,147 +169,105 @@ public class Game {
                 grid[i * Game.GRID_LENGTH + j] = new Tile(new Coordinate(i, j));
     }
     
-    // Spawn the Snake.
+    // Spawn the Snake and the Apple.
     private void loadSnake() {
         
         player = Genetics.generation.get(0);
-        net = new NeuralNetwork(player.genome());
+        simulation = new Simulation(player, GRID_LENGTH, Genetics.spawnRandom());
         
-        // Sets the tiles the player is on to occupied.
-        for (int i = 0; i < 2; i++)
-            ((Tile)grid[player.body().get(i).getPos().toTile()]).setOccupied(true);
+        body.clear();
+        apple = new Apple(new Coordinate(simulation.apple().x(), simulation.apple().y()));
+        
+        render();
+        group.getChildren().add(apple);
         
         // Increments Snake count to keep track of an individual.
         snakeCount += 1;
         System.out.print("#" + snakeCount);
     }
     
-    // Spawn the Apple.
-    private void loadApple() {
-        
-        apple = new Apple(getAppleSpawn());
-        ((Tile)grid[((Apple)apple).getPos().toTile()]).setOccupied(true);
-    }
-    
     /*
-    // @author hydrozoa
-    //
-    // Load the genetics components required to
-    // use NEAT algorithm and neural network.
-    //
-    // Besides tweaks and my comments, code for
-    // this method is attributed to "hydrozoa".
+    // Move Segments and Apple to the positions
+    // of the Simulation, adding a Segment for
+    // every cell the Snake has grown by.
     */
-    private void loadGenetics() {
+    private void render() {
         
-        // Counts how many node innovations are in a genome.
-        Counter nodeInn = new Counter();
+        while (body.size() < player.size()) {
+            
+            Coordinate pos = player.segment(body.size());
+            Segment segment = new Segment(new Coordinate(pos.x(), pos.y()));
+            
+            body.add(segment);
+            group.getChildren().add(segment);
+        }
         
-        // Counts how many connection innovations are in a genome.
-        Counter connInn = new Counter();
+        for (int i = 0; i < player.size(); i++)
+            body.get(i).setPos(player.segment(i).x(), player.segment(i).y());
         
-        // Initializes genome.
-        Genome genome = new Genome();
+        apple.setPos(simulation.apple().x(), simulation.apple().y());
+    }
+    
+    // Reset the game to prepare for a new Snake.
+    private void reset() {
         
-        // Adds 6 nodes for use in the input layer.
-        for (int i = 0; i < 6; i++)
-            genome.addNodeGene(new NodeGene(TYPE.INPUT, nodeInn.getInnovation()));
+        // The last game already ended.
+        if (skipping)
+            return;
         
-        // Adds 3 nodes for use in the output layer.
-        for (int j = 0; j < 3; j++)
-            genome.addNodeGene(new NodeGene(TYPE.OUTPUT, nodeInn.getInnovation()));
+        // Calculate final fitness, in case game was reset by key.
+        simulation.end();
         
-        // Adds connections for every unique combination of input + output node.
-        for (int i = 0; i < 6; i++)
-            for (int j = 6; j < 9; j++)
-                genome.addConnectionGene(new ConnectionGene(i, j, 1f, true, connInn.getInnovation()));
+        System.out.print(" Fitness: " + player.fitness() + "\n");
         
-        // Object that generates the random genomes for first generation of Snakes.
-        GenesisGenomeProvider provider = () -> {
-            
-            // Creates copy of "genome".
-            Genome g = new Genome(genome);
-            
-            // Sets weight of each connection to a random value.
-            g.getConnectionGenes().values().forEach((connection) -> {
-                connection.setWeight((float)r.nextGaussian());
-            });
-            
-            // Returns genome.
-            return g;
-        };
+        // Remember fitness for Snakes with the same Policy.
+        Genetics.remember(player);
         
-        // Generate NEAT algorithm that uses GEN_SIZE
-        // as the number of Snakes in each generation.
-        NEATConfiguration conf = new NEATConfiguration(Genetics.GEN_SIZE);
+        // Turn timers off.
+        timersOn(false);
         
-        // Evaluator object that evaluates the performance
-        // of each Snake and generation of Snakes.
-        evaluator = new Evaluator(conf, provider, nodeInn, connInn) {
-            
-            @Override
-            public float evaluateGenome(Genome g) {
-                
-                // Return g.fitness as its evaluation of fitness.
-                return g.fitness;
-            }
-        };
+        // Remove game components.
+        group.getChildren().removeAll(body);
+        group.getChildren().remove(apple);
         
-        // Initialize arrayList used to store Snakes.
-        Genetics.generation = new ArrayList<>();
+        retire();
         
-        // Add Snake with corresponding genome to the arrayList.
-        for (int i = 0; i < Genetics.GEN_SIZE; i++)
-            Genetics.generation.add(new Snake(evaluator.genomes.get(i)));
+        skipping = true;
+        skipCached();
+        
+        timersOn(true);
     }
     
     /*
-    // Generate a random Coordinate for an
-    // Apple object. Always ensure that the
-    // Coordinate is on a non-occupied Tile.
-    //
-    // @return Coordinate of next Apple.
+    // Skip Snakes that would replay a game that was
+    // already played, up to SKIPS_PER_MOVE of them,
+    // and load the next Snake once one has to play.
+    // Otherwise the move timer carries on skipping.
     */
-    private Coordinate getAppleSpawn() {
-        
-        ArrayList<Tile> freeTiles = new ArrayList<>();
+    private void skipCached() {
         
-        for (int i = 0; i < GRID_AREA; i++)
-            freeTiles.add((Tile)grid[i]);
-        
-        for (int i = 0; i < freeTiles.size(); i++) {
+        for (int i = 0; i < SKIPS_PER_MOVE; i++) {
             
-            if (freeTiles.get(i).occupied) {
+            if (!Genetics.recall(Genetics.generation.get(0))) {
                 
-                freeTiles.remove(i);
-                i -= 1;
+                skipping = false;
+                loadSnake();
+                return;
             }
+            
+            snakeCount += 1;
+            System.out.print("#" + snakeCount + " Fitness: " + Genetics.generation.get(0).fitness() + " (cached)\n");
+            
+            retire();
         }
-
-        Tile randomTile = new Tile(freeTiles.get((int)Math.floor(Math.random() * freeTiles.size())));
-        
-        return new Coordinate(randomTile.x(), randomTile.y());
     }
     
-    // Reset the game to prepare for a new Snake.
-    private void reset() {
-        
-        // Transfer current score of Snake into health.
-        player.addHealth(player.score());
-        
-        // Calculate final fitness of Snake.
-        player.calcFitness();
-        System.out.print(" Fitness: " + player.fitness() + "\n");
-        
-        // Turn timers off.
-        timersOn(false);
-        
-        // Load new grid.
-        loadGrid();
-        
-        // Remove game components.
-        group.getChildren().removeAll(player.body());
-        group.getChildren().remove(apple);
+    /*
+    // Move the current Snake to the dead, and
+    // evolve the next generation once all
+    // Snakes of this one have died.
+    */
+    private void retire() {
         
         // Add current Snake to "dead" arrayList.
         Genetics.dead.add(Genetics.generation.get(0));
@@ -389,29 +280,8 @@ public class Game {
             
             snakeCount = 0;
             
-            // Sort dead Snakes using Insertion sort.
-            Genetics.dead = Genetics.sort(Genetics.dead);
-            
-            // Evaluate generation, scoring each with a fitness
-            // and generating a new genome based on the most fit
-            // Snakes.
-            evaluator.evaluateGeneration(r);
-            
-            // Add a Snake with their corresponding genome.
-            for (int i = 0; i < Genetics.GEN_SIZE; i++)
-                Genetics.generation.add(new Snake(evaluator.genomes.get(i)));
-            
-            // Clear dead Snake arrayList, using recursion.
-            Genetics.dead = Genetics.clean(Genetics.dead);
+            Genetics.nextGeneration(evaluator, r);
         }
-        
-        loadSnake();
-        loadApple();
-        
-        group.getChildren().addAll(player.body());
-        group.getChildren().add(apple);
-        
-        timersOn(true);
     }
     
     /*
@@ -421,17 +291,11 @@ public class Game {
     */
     private void timersOn(boolean on) {
         
-        if (on) {
-            
+        if (on)
             moveTimer.start();
-            starveTimer.start();
-        }
         
-        else {
-            
+        else
             moveTimer.stop();
-            starveTimer.stop();
-        }
     }
     
     // Getter for scene.
@@ -439,4 +303,4 @@ public class Game {
         
         return scene;
     }
-}
\ No newline at end of file
+}
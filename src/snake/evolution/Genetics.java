@@ -1,6 +1,27 @@
 package snake.evolution;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+// From NEAT package.
+// IMPORTANT: Credit for NEAT algorithm code goes to "hydrozoa".
+// Code retrieved from https://github.com/hydrozoa-yt/hydroneat
+*/
+import neat.ConnectionGene;
+import neat.Counter;
+import neat.Evaluator;
+import neat.GenesisGenomeProvider;
+import neat.Genome;
+import neat.NEATConfiguration;
+import neat.NodeGene;
+import neat.NodeGene.TYPE;
 
 /*
 // Contains variables and methods that
@@ -15,6 +36,26 @@ public class Genetics {
     // No. of Snakes in a generation.
     public static final int GEN_SIZE = 45; // make multiple of 3, min 12
     
+    // Whether Snakes decide using a Policy table instead of their network.
+    public static final boolean TABULATE_POLICY = true;
+    
+    // Whether Snakes whose Policy was already played reuse its fitness.
+    // Off unless run with -Dsnake.cacheFitness=true, as every Snake
+    // then plays from the same start. Requires TABULATE_POLICY.
+    public static final boolean CACHE_FITNESS = TABULATE_POLICY && Boolean.getBoolean("snake.cacheFitness");
+    
+    // Seed for Snake and Apple spawns when fitness is cached, so that
+    // every Snake plays from the same start.
+    public static final long SPAWN_SEED = 20190415L;
+    
+    // Most Policies whose fitness is cached at once. A full cache is
+    // emptied rather than growing for as long as the program runs.
+    public static final int FITNESS_CACHE_SIZE = 1 << 16;
+    
+    // Fitness of the Policies played by the current Evaluator, mapped
+    // by fingerprint. Snakes may be played on several threads at once.
+    private static ConcurrentHashMap<Long, Integer> fitnessCache = new ConcurrentHashMap<>();
+    
     // Alive snakes.
     public static ArrayList<Snake> generation;
     
@@ -22,31 +63,292 @@ public class Genetics {
     public static ArrayList<Snake> dead = new ArrayList<>();
 
     /*
-    // Insertion sort algorithm.
+    // Load the genetics components required to
+    // use NEAT algorithm and neural network, and
+    // fill "generation" with the first Snakes.
     //
-    // @param gen: unsorted ArrayList of Snakes
+    // @param r: source of randomness for genomes
     //
-    // @return Sorted ArrayList of Snakes.
+    // @return Evaluator that evolves each generation.
     */
-    public static ArrayList<Snake> sort(ArrayList<Snake> gen) {
+    public static Evaluator loadGenetics(Random r) {
+        
+        Evaluator evaluator = createEvaluator(r, false);
+        
+        // Initialize arrayList used to store Snakes.
+        generation = new ArrayList<>();
+        
+        // Add Snake with corresponding genome to the arrayList.
+        hatch(evaluator.genomes);
+        
+        return evaluator;
+    }
+    
+    /*
+    // Load the genetics components for training
+    // without a display. The Evaluator plays every
+    // Snake itself when evaluating a generation, so
+    // "generation" and "dead" aren't used.
+    //
+    // @param r: source of randomness for genomes
+    // @param pool: pool that plays the Snakes of a
+    // generation concurrently, or null to play them
+    // one by one
+    //
+    // @return Evaluator that evolves each generation.
+    */
+    public static Evaluator loadGenetics(Random r, ForkJoinPool pool) {
+        
+        Evaluator evaluator = createEvaluator(r, true);
+        evaluator.setPool(pool);
+        
+        return evaluator;
+    }
+    
+    /*
+    // @author hydrozoa
+    //
+    // Create the genesis genome and the Evaluator
+    // of the NEAT algorithm.
+    //
+    // Besides tweaks and my comments, code for
+    // this method is attributed to "hydrozoa".
+    //
+    // @param r: source of randomness for genomes
+    // @param play: whether the Evaluator plays each
+    // Snake, instead of reading the fitness it got
+    // from a displayed game
+    */
+    private static Evaluator createEvaluator(Random r, boolean play) {
         
-        for (int i = 1; i < gen.size(); i++) {
+        // Fitness cached for another Evaluator's Snakes isn't reused.
+        fitnessCache.clear();
+        
+        // Counts how many node innovations are in a genome.
+        Counter nodeInn = new Counter();
+        
+        // Counts how many connection innovations are in a genome.
+        Counter connInn = new Counter();
+        
+        // Initializes genome.
+        Genome genome = new Genome();
+        
+        // Adds 6 nodes for use in the input layer.
+        for (int i = 0; i < INPUT_SIZE; i++)
+            genome.addNodeGene(new NodeGene(TYPE.INPUT, nodeInn.getInnovation()));
+        
+        // Adds 3 nodes for use in the output layer.
+        for (int j = 0; j < 3; j++)
+            genome.addNodeGene(new NodeGene(TYPE.OUTPUT, nodeInn.getInnovation()));
+        
+        // Adds connections for every unique combination of input + output node.
+        for (int i = 0; i < INPUT_SIZE; i++)
+            for (int j = INPUT_SIZE; j < INPUT_SIZE + 3; j++)
+                genome.addConnectionGene(new ConnectionGene(i, j, 1f, true, connInn.getInnovation()));
+        
+        // Object that generates the random genomes for first generation of Snakes.
+        GenesisGenomeProvider provider = () -> {
+            
+            // Creates copy of "genome".
+            Genome g = new Genome(genome);
             
-            Snake base = gen.get(i);
-            int j = i - 1;
+            // Sets weight of each connection to a random value.
+            g.getConnectionGenes().values().forEach((connection) -> {
+                connection.setWeight((float)r.nextGaussian());
+            });
             
-            while (j >= 0 && gen.get(j).fitness() > base.fitness()) {
+            // Returns genome.
+            return g;
+        };
+        
+        // Generate NEAT algorithm that uses GEN_SIZE
+        // as the number of Snakes in each generation.
+        NEATConfiguration conf = new NEATConfiguration(GEN_SIZE);
+        
+        // Evaluator object that evaluates the performance
+        // of each Snake and generation of Snakes.
+        Evaluator evaluator = new Evaluator(conf, provider, nodeInn, connInn) {
+            
+            // Policies of the generation being scored, by genome.
+            private IdentityHashMap<Genome, Policy> policies = new IdentityHashMap<>();
+            
+            @Override
+            protected void prepareScoring(List<Genome> genomes) {
                 
-                gen.set(j + 1, gen.get(j));
-                j -= 1;
+                policies.clear();
+                
+                // Tabulate every Snake to be played at once.
+                if (play && TABULATE_POLICY) {
+                    
+                    Policy[] tabulated = Policy.tabulate(genomes);
+                    
+                    for (int i = 0; i < tabulated.length; i++)
+                        policies.put(genomes.get(i), tabulated[i]);
+                }
             }
             
-            gen.set(j + 1, base);
+            @Override
+            public float evaluateGenome(Genome g) {
+                
+                // Return g.fitness as its evaluation of fitness.
+                return g.fitness;
+            }
+            
+            @Override
+            public float evaluateGenome(Genome g, SplittableRandom random) {
+                
+                // Play a game to get g.fitness first.
+                if (play) {
+                    
+                    Policy policy = policies.get(g);
+                    Genetics.play(policy != null ? new Snake(g, policy) : new Snake(g), random);
+                }
+                
+                return evaluateGenome(g);
+            }
+        };
+        
+        return evaluator;
+    }
+    
+    /*
+    // Evolve the next generation once every Snake
+    // of the current one is dead.
+    //
+    // @param evaluator: Evaluator created by loadGenetics()
+    // @param r: source of randomness for genomes
+    */
+    public static void nextGeneration(Evaluator evaluator, Random r) {
+        
+        // Sort dead Snakes by fitness.
+        dead = sort(dead);
+        
+        // Evaluate generation, scoring each with a fitness
+        // and generating a new genome based on the most fit
+        // Snakes.
+        evaluator.evaluateGeneration(r);
+        
+        // Add a Snake with their corresponding genome.
+        hatch(evaluator.genomes);
+        
+        // Clear dead Snake arrayList, using recursion.
+        dead = clean(dead);
+    }
+    
+    /*
+    // Add a Snake for every genome to "generation",
+    // tabulating their Policies in one batch.
+    //
+    // @param genomes: genomes of the new Snakes
+    */
+    private static void hatch(List<Genome> genomes) {
+        
+        Policy[] policies = TABULATE_POLICY ? Policy.tabulate(genomes) : new Policy[genomes.size()];
+        
+        for (int i = 0; i < genomes.size(); i++)
+            generation.add(new Snake(genomes.get(i), policies[i]));
+    }
+    
+    /*
+    // Play a Snake's game without displaying it,
+    // unless a Snake with the same Policy already
+    // played it.
+    //
+    // @param snake: Snake being scored
+    // @param random: source of randomness for spawns
+    // if fitness isn't cached
+    //
+    // @return Final fitness of the Snake.
+    */
+    public static int play(Snake snake, SplittableRandom random) {
+        
+        if (!recall(snake)) {
+            
+            new Simulation(snake, spawnRandom(random)).play();
+            remember(snake);
         }
         
+        return snake.fitness();
+    }
+    
+    /*
+    // Give a Snake the cached fitness of its Policy.
+    //
+    // @param snake: Snake that hasn't played yet
+    //
+    // @return true if fitness was cached, false otherwise.
+    */
+    public static boolean recall(Snake snake) {
+        
+        if (!CACHE_FITNESS)
+            return false;
+        
+        Integer cached = fitnessCache.get(snake.policy().fingerprint());
+        
+        if (cached == null)
+            return false;
+        
+        snake.setFitness(cached);
+        
+        return true;
+    }
+    
+    /*
+    // Cache fitness of a Snake that finished playing.
+    //
+    // @param snake: Snake with final fitness
+    */
+    public static void remember(Snake snake) {
+        
+        if (!CACHE_FITNESS)
+            return;
+        
+        if (fitnessCache.size() >= FITNESS_CACHE_SIZE)
+            fitnessCache.clear();
+        
+        fitnessCache.put(snake.policy().fingerprint(), snake.fitness());
+    }
+    
+    /*
+    // Sort Snakes by fitness, least fit first. Snakes
+    // that are equally fit keep their order.
+    //
+    // @param gen: unsorted ArrayList of Snakes
+    //
+    // @return Sorted ArrayList of Snakes.
+    */
+    public static ArrayList<Snake> sort(ArrayList<Snake> gen) {
+        
+        gen.sort(Comparator.comparingInt(Snake::fitness));
+        
         return gen;
     }
     
+    /*
+    // Create random number generator for spawns.
+    //
+    // @return Generator with SPAWN_SEED if fitness is
+    // cached, otherwise an unpredictable one.
+    */
+    public static Random spawnRandom() {
+        
+        return CACHE_FITNESS ? new Random(SPAWN_SEED) : new Random();
+    }
+    
+    /*
+    // Create random number generator for spawns
+    // from a generator of a single Snake.
+    //
+    // @param random: generator only used by this Snake
+    //
+    // @return Generator with SPAWN_SEED if fitness is
+    // cached, otherwise one seeded from random.
+    */
+    public static Random spawnRandom(SplittableRandom random) {
+        
+        return CACHE_FITNESS ? new Random(SPAWN_SEED) : new Random(random.nextLong());
+    }
+    
     /*
     // Find the index of largest element in an array.
     //
@@ -1,150 +1,42 @@
 package snake.evolution;
 
-import javafx.scene.Node;
-import javafx.scene.input.KeyEvent;
-
 /*
 // Controls any changes made to the game.
 */
 public class Manager {
     
-    // Whether new key inputs are processed.
-    private static boolean keyLock = false;
-    
-    /*
-    // Invokes Snake's changePath() method if
-    // processing is not locked.
-    //
-    // @param event - Keystroke input.
-    // @param player - Player-controlled character.
-    */
-    public static void getInput(KeyEvent event, Snake player) {
-        
-        if (!keyLock) {
-            
-            // Locks processing.
-            keyLock = true;
-
-            // Updates player direction.
-            player.changePath(event);
-        }
-    }
-    
-    /*
-    // Update the game grid when changes occur
-    // to its tiles.
-    //
-    // @param grid: grid being processed
-    // @param player: Snake playing on the grid
-    // @param apple: Apple on the grid
-    //
-    // @return Grid with up-to-date info on Tiles
-    // and which ones are occupied.
-    */
-    public static Node[] updateGrid(Node[] grid, Snake player, Apple apple) {
-        
-        // Store copies of elements in grid.
-        Node[] gridClone = new Node[Game.GRID_AREA];
-        
-        // Iterate through all tiles, adding each tile to gridClone.
-        for (int i = 0; i < Game.GRID_AREA; i++)
-            gridClone[i] = grid[i];
-        
-        // Set every tile that snake's body is on to "occupied".
-        for (int i = 0; i < player.size(); i++)
-            ((Tile)gridClone[player.segment(i).getPos().toTile()]).setOccupied(true);
-
-        // Set last tile of LAST segment to "not occupied".
-        if (player.segment(player.size() - 1).lastPos() != null) // null if lastPos doesn't yet exist
-            ((Tile)gridClone[player.segment(player.size() - 1).lastPos().toTile()]).setOccupied(false);
-        
-        // Set tile of apple to "occupied".
-        ((Tile)gridClone[apple.getPos().toTile()]).setOccupied(true);
-        
-        if (apple.lastPos() != null) { // null if lastPos doesn't yet exist
-            
-            // Snake body isn't initially on apple.
-            boolean onApple = false;
-            
-            // Iterate through each segment in snake body...
-            for (int i = 0; i < player.size(); i++)
-                
-                // If segment and apple's last position are the same...
-                if (apple.lastPos().equals(player.segment(i).getPos()))
-                    
-                    // Snake body is on apple.
-                    onApple = true;
-            
-            // If on apple...
-            if (onApple)
-                ((Tile)gridClone[apple.lastPos().toTile()]).setOccupied(true);
-            
-            else
-                ((Tile)gridClone[apple.lastPos().toTile()]).setOccupied(false);
-        }
-        
-        Node[] newGrid = new Node[Game.GRID_AREA];
-        
-        // Iterate through all tiles in gridClone, adding back each tile to newGrid.
-        for (int i = 0; i < Game.GRID_AREA; i++)
-            newGrid[i] = gridClone[i];
-        
-        return newGrid;
-    }
-    
     /*
-    // Move Snake's body to a new position.
+    // Move Snake's body to a new position and
+    // update which cells of the board it occupies.
     //
-    // @param grid: game grid
     // @param snake: character that is moving
-    // @param apple: Food object
+    // @param board: occupancy of the game grid
     //
     // @return true if movement is successful, false if Snake
     // collides with an obstacle.
     */
-    public static boolean move(Snake snake, Apple apple, Node[] grid) {
+    public static boolean move(Snake snake, Board board) {
         
-        // Reference to first segment.
-        Segment head = snake.segment(0);
-        
-        // Set last position of head to current position.
-        head.setLastPos(head.getPos());
+        int forward = board.next(snake.cell(0), snake.direction(), Direction.FORWARD);
         
         /*
         // If Snake's next forward movement would
-        // result in it being out of bounds, movement
-        // is obstructed.
-        */
-        if (snake.next("Forward").outOfBounds())
-            return false;
-        
-        /*
-        // Else if Snake's next forward movement is
-        // onto an occupied Tile and that Tile does
-        // not have an Apple, also obstructed.
+        // result in it being out of bounds or onto
+        // a segment, movement is obstructed.
         */
-        else if (((Tile)grid[snake.next("Forward").toTile()]).occupied && !snake.next("Forward").equals(apple.getPos()))
+        if (blocked(board, forward))
             return false;
         
         // Otherwise, no obstruction.
         else {
             
-            // Move head forward.
-            head.setPos(snake.next("Forward"));
+            snake.move(forward);
             
-            /*
-            // Each Segment in Snake has its last position
-            // set to current position. Then, position is
-            // updated to match the last position of its
-            // corresponding previous Segment.
-            */
-            for (int i = 1; i < snake.size(); i++) {
-
-                snake.segment(i).setLastPos(snake.segment(i).getPos());
-                snake.segment(i).setPos(snake.segment(i - 1).lastX(), snake.segment(i - 1).lastY());
-            }
+            // Tail leaves its cell, head enters a new one.
+            board.vacate(snake.lastTail());
+            board.occupy(snake.cell(0));
         }
-
+        
         return true;
     }
     
@@ -152,51 +44,62 @@ public class Manager {
     // Create input[] array for use in processing
     // by neural network.
     //
-    // @param grid: grid being processed
+    // @param board: occupancy of the game grid
+    // @param player: Snake playing on the grid
+    // @param apple: position of Apple on the grid
+    */
+    public static float[] processInput(Board board, Snake player, Coordinate apple) {
+        
+        return processInput(board, player, apple, new float[Genetics.INPUT_SIZE]);
+    }
+    
+    /*
+    // Fill an existing input[] array for use in
+    // processing by neural network.
+    //
+    // @param board: occupancy of the game grid
     // @param player: Snake playing on the grid
-    // @param apple: Apple on the grid
+    // @param apple: position of Apple on the grid
+    // @param input[]: array which will hold final return values
     */
-    public static float[] processInput(Node[] grid, Snake player, Apple apple) {
+    public static float[] processInput(Board board, Snake player, Coordinate apple, float input[]) {
         
-        // Array which will hold final return values.
-        float input[] = new float[Genetics.INPUT_SIZE];
+        int head = player.cell(0);
+        int direction = player.direction();
         
         // If forward Tile is out of the game grid
         // or is a Segment, input[0] is 1, otherwise 0.
-        input[0] = player.next("Forward").outOfBounds() ||
-                (((Tile)grid[player.next("Forward").toTile()]).occupied
-                && !apple.getPos().equals(player.next("Forward"))) ? 1 : 0;
+        input[0] = blocked(board, board.next(head, direction, Direction.FORWARD)) ? 1 : 0;
         
         // If left Tile is out of the game grid
         // or is a Segment, input[1] is 1, otherwise 0.
-        input[1] = player.next("Left").outOfBounds() ||
-                (((Tile)grid[player.next("Left").toTile()]).occupied
-                && !apple.getPos().equals(player.next("Left"))) ? 1 : 0;
+        input[1] = blocked(board, board.next(head, direction, Direction.LEFT)) ? 1 : 0;
         
-        // If left Tile is out of the game grid
+        // If right Tile is out of the game grid
         // or is a Segment, input[2] is 1, otherwise 0.
-        input[2] = player.next("Right").outOfBounds() ||
-                (((Tile)grid[player.next("Right").toTile()]).occupied
-                && !apple.getPos().equals(player.next("Right"))) ? 1 : 0;
+        input[2] = blocked(board, board.next(head, direction, Direction.RIGHT)) ? 1 : 0;
         
-        // Sets angle as return value of angleToApple().
-        double angle = player.angleToApple(apple);
+        // Looks up which side of the angle to the Apple it's on.
+        int side = board.appleSensor().side(head, board.cell(apple.x(), apple.y()), direction);
         
-        // If angle meets conditions, input[3] is 1, else 0;
-        input[3] = angle > -45 && angle < 45 ? 1 : 0;
+        // If angle is between -45 and 45, input[3] is 1, else 0;
+        input[3] = side == AppleSensor.AHEAD ? 1 : 0;
         
-        // If angle meets conditions, input[4] is 1, else 0;
-        input[4] = angle <= -45 ? 1 : 0;
+        // If angle is -45 or less, input[4] is 1, else 0;
+        input[4] = side == AppleSensor.LEFT ? 1 : 0;
         
-        // If angle meets conditions, input[5] is 1, else 0;
-        input[5] = angle >= 45 ? 1 : 0;
+        // If angle is 45 or more, input[5] is 1, else 0;
+        input[5] = side == AppleSensor.RIGHT ? 1 : 0;
         
         return input;
     }
     
-    // Setter for keyLock.
-    public static void toggleLock(boolean state) {
+    /*
+    // Whether a cell is out of the game grid (-1)
+    // or occupied by a segment.
+    */
+    private static boolean blocked(Board board, int cell) {
         
-        keyLock = state;
+        return cell < 0 || board.isOccupied(cell);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,217 @@
+package snake.evolution;
+
+import java.util.List;
+
+import neat.Genome;
+import neat.NetworkBatch;
+import neat.NetworkCache;
+import neat.NeuralNetwork;
+
+/*
+// Complete decision table of a Snake's neural network.
+//
+// processInput() only produces 24 distinct input[] arrays:
+// input[0-2] are binary obstacle flags and input[3-5] is a
+// one-hot bucket of the angle to the Apple. Running the
+// network once for each of them up front turns every later
+// decision into an array lookup.
+*/
+public class Policy {
+    
+    // No. of angle buckets in input[3-5].
+    static final int BUCKETS = 3;
+    
+    // No. of distinct input[] arrays.
+    public static final int STATES = 8 * BUCKETS;
+    
+    // Index of largest output for each state, -1 if unsolvable.
+    private final byte[] actions;
+    
+    // Every action packed into 2 bits, identifying the behaviour.
+    private final long fingerprint;
+    
+    // Networks of recent Genomes, so elites and unchanged
+    // clones aren't built again. One cache per thread, as
+    // networks are only valid until the next lookup.
+    private static final ThreadLocal<NetworkCache> NETWORKS = ThreadLocal.withInitial(() -> new NetworkCache(64));
+    
+    /*
+    // Default constructor.
+    //
+    // @param genome: DNA whose network is tabulated
+    */
+    public Policy(Genome genome) {
+        
+        this(NETWORKS.get().get(genome));
+    }
+    
+    /*
+    // Tabulates an already built network.
+    //
+    // @param net: network being tabulated
+    */
+    public Policy(NeuralNetwork net) {
+        
+        this(actions(net));
+    }
+    
+    /*
+    // Wraps a complete decision table.
+    //
+    // @param actions[]: index of largest output for each state
+    */
+    private Policy(byte[] actions) {
+        
+        this.actions = actions;
+        
+        long packed = 0;
+        
+        for (int state = 0; state < STATES; state++)
+            packed |= (long)(actions[state] + 1) << (2 * state);
+        
+        fingerprint = packed;
+    }
+    
+    /*
+    // Tabulates the networks of many Genomes at once.
+    // Each state is calculated for all of them in one
+    // NetworkBatch, which gives the same outputs as
+    // their networks would one by one. The batch takes
+    // its networks from the cache, so elites and clones
+    // aren't built again.
+    //
+    // @param genomes: DNA whose networks are tabulated
+    //
+    // @return Policy of each Genome, in the same order.
+    */
+    public static Policy[] tabulate(List<Genome> genomes) {
+        
+        NetworkBatch batch = new NetworkBatch(genomes, NETWORKS.get());
+        int outputCount = batch.getOutputCount();
+        
+        float[] input = new float[Genetics.INPUT_SIZE];
+        float[] inputs = new float[genomes.size() * input.length];
+        float[] outputs = new float[genomes.size() * outputCount];
+        float[] output = new float[outputCount];
+        byte[][] actions = new byte[genomes.size()][STATES];
+        
+        for (int state = 0; state < STATES; state++) {
+            
+            decode(state, input);
+            
+            for (int i = 0; i < genomes.size(); i++)
+                System.arraycopy(input, 0, inputs, i * input.length, input.length);
+            
+            batch.calculate(inputs, outputs);
+            
+            for (int i = 0; i < genomes.size(); i++) {
+                
+                System.arraycopy(outputs, i * outputCount, output, 0, outputCount);
+                
+                // Outputs of a network that can't be solved are NaN.
+                if (Float.isNaN(output[0]))
+                    actions[i][state] = -1;
+                
+                else
+                    actions[i][state] = (byte)Genetics.largest(output);
+            }
+        }
+        
+        Policy[] policies = new Policy[genomes.size()];
+        
+        for (int i = 0; i < policies.length; i++)
+            policies[i] = new Policy(actions[i]);
+        
+        return policies;
+    }
+    
+    // Index of largest output of a network for each state, -1 if unsolvable.
+    private static byte[] actions(NeuralNetwork net) {
+        
+        float[] input = new float[Genetics.INPUT_SIZE];
+        float[] output = new float[net.getOutputCount()];
+        byte[] actions = new byte[STATES];
+        
+        for (int state = 0; state < STATES; state++) {
+            
+            decode(state, input);
+            
+            if (net.calculate(input, output) == null)
+                actions[state] = -1;
+            
+            else
+                actions[state] = (byte)Genetics.largest(output);
+        }
+        
+        return actions;
+    }
+    
+    /*
+    // Look up decision for an input[] array.
+    //
+    // @param input[]: array created by processInput()
+    //
+    // @return Index of largest output of the network.
+    */
+    public int action(float input[]) {
+        
+        return actions[index(input)];
+    }
+    
+    /*
+    // Look up decision for a state.
+    //
+    // @param state: index created by index()
+    //
+    // @return Index of largest output of the network.
+    */
+    public int action(int state) {
+        
+        return actions[state];
+    }
+    
+    /*
+    // Getter for fingerprint. Two Policies with the same
+    // fingerprint make the same decision in every state,
+    // so they play identical games from the same start.
+    */
+    public long fingerprint() {
+        
+        return fingerprint;
+    }
+    
+    /*
+    // Convert an input[] array to its state.
+    //
+    // @param input[]: array created by processInput()
+    //
+    // @return Index between 0 and STATES - 1.
+    */
+    public static int index(float input[]) {
+        
+        int obstacles = (input[0] != 0 ? 4 : 0) | (input[1] != 0 ? 2 : 0) | (input[2] != 0 ? 1 : 0);
+        int bucket = input[4] != 0 ? 1 : input[5] != 0 ? 2 : 0;
+        
+        return obstacles * BUCKETS + bucket;
+    }
+    
+    /*
+    // Convert a state back to its input[] array.
+    //
+    // @param state: index between 0 and STATES - 1
+    // @param input[]: array being filled
+    */
+    public static void decode(int state, float input[]) {
+        
+        int obstacles = state / BUCKETS;
+        int bucket = state % BUCKETS;
+        
+        input[0] = (obstacles & 4) != 0 ? 1 : 0;
+        input[1] = (obstacles & 2) != 0 ? 1 : 0;
+        input[2] = (obstacles & 1) != 0 ? 1 : 0;
+        
+        input[3] = bucket == 0 ? 1 : 0;
+        input[4] = bucket == 1 ? 1 : 0;
+        input[5] = bucket == 2 ? 1 : 0;
+    }
+}
@@ -0,0 +1,219 @@
+package snake.evolution;
+
+import java.util.Random;
+
+/*
+// One game of "Snake" as plain data. Time advances one
+// move per step(), so a game runs as fast as the CPU
+// allows and needs no display or frame pulse.
+*/
+public class Simulation {
+    
+    // Moves between starvation checks (5280 ms / 132 ms in the original real-time game).
+    public static final int STARVE_TICKS = 40;
+    
+    // Game components.
+    private final Board board;
+    private final Snake player;
+    private Coordinate apple;
+    
+    // Randomness for spawns.
+    private final Random random;
+    
+    // Moves made so far.
+    private int ticks = 0;
+    
+    // Whether the Snake has died or filled the grid.
+    private boolean over = false;
+    
+    // Reused by sense().
+    private final float[] input = new float[Genetics.INPUT_SIZE];
+    
+    /*
+    // Default constructor, using the default grid size.
+    //
+    // @param player: Snake playing the game
+    // @param random: source of randomness for spawns
+    */
+    public Simulation(Snake player, Random random) {
+        
+        this(player, Board.LENGTH, random);
+    }
+    
+    /*
+    // Starts a game on a grid of any size.
+    //
+    // @param player: Snake playing the game
+    // @param length: no. of cells along one side of the grid
+    // @param random: source of randomness for spawns
+    */
+    public Simulation(Snake player, int length, Random random) {
+        
+        this.board = new Board(length);
+        this.player = player;
+        this.random = random;
+        
+        // Head is at least one cell away from the edge to ensure
+        // adequate room for the Snake's body.
+        int x = random.nextInt(length - 2) + 1;
+        int y = random.nextInt(length - 2) + 1;
+        
+        player.spawn(length, new Coordinate(x, y), random.nextInt(4));
+        
+        for (int i = 0; i < player.size(); i++)
+            board.occupy(player.cell(i));
+        
+        apple = board.randomFree(random);
+    }
+    
+    /*
+    // Advance the game by one move.
+    //
+    // @param action: 1 turns left, 2 turns right,
+    // anything else keeps going forward
+    //
+    // @return true if the game goes on, false if it is over.
+    */
+    public boolean step(int action) {
+        
+        if (over)
+            return false;
+        
+        // If Snake hasn't eaten since the last check, game over.
+        if (ticks % STARVE_TICKS == 0) {
+            
+            if (!player.wellFed())
+                return end();
+            
+            // Set Snake to hungry.
+            player.setWellFed(false);
+        }
+        
+        ticks += 1;
+        
+        player.turn(action);
+        
+        if (!Manager.move(player, board))
+            return end();
+        
+        // If Snake moves closer toward Apple, increment score by 1.
+        if (closer(player.cell(0), player.lastHead()))
+            player.addScore(1);
+        
+        // Otherwise, Snake is moving away so decrement score by 2.
+        else
+            player.addScore(-2);
+        
+        // If Snake eats Apple...
+        if (player.onApple(apple)) {
+            
+            // Increment Snake health based on its score.
+            player.addHealth(player.score());
+            
+            player.resetScore();
+            player.grow();
+            
+            board.occupy(player.cell(player.size() - 1));
+            
+            // Snake reaches max length, so there's no space for an Apple.
+            if (player.size() == board.area())
+                return end();
+            
+            apple = board.randomFree(random);
+        }
+        
+        return true;
+    }
+    
+    /*
+    // Compares two cells to determine which is closer
+    // to the Apple, as Coordinate.closer() does.
+    //
+    // @return true if cell is closer to the Apple than other,
+    // false otherwise.
+    */
+    private boolean closer(int cell, int other) {
+        
+        int length = board.length();
+        
+        // If y-coordinates are equal, check the x's.
+        if (cell % length == other % length)
+            return Math.abs(apple.x() - cell / length) < Math.abs(apple.x() - other / length);
+        
+        // Else x-coordinate equal, so check the y's.
+        else
+            return Math.abs(apple.y() - cell % length) < Math.abs(apple.y() - other % length);
+    }
+    
+    /*
+    // Play until the game is over, letting the
+    // Snake decide every move.
+    //
+    // @return Final fitness of the Snake.
+    */
+    public int play() {
+        
+        while (step(player.decide(sense())));
+        
+        return player.fitness();
+    }
+    
+    /*
+    // Create input[] array for the current state.
+    // The array is reused by the next call.
+    */
+    public float[] sense() {
+        
+        return Manager.processInput(board, player, apple, input);
+    }
+    
+    /*
+    // Finish game and calculate final fitness of Snake.
+    // Does nothing if the game is already over.
+    //
+    // @return false, as the game doesn't go on.
+    */
+    public boolean end() {
+        
+        if (!over) {
+            
+            over = true;
+            
+            // Transfer current score of Snake into health.
+            player.addHealth(player.score());
+            player.calcFitness();
+        }
+        
+        return false;
+    }
+    
+    // Getter for board.
+    public Board board() {
+        
+        return board;
+    }
+    
+    // Getter for player.
+    public Snake player() {
+        
+        return player;
+    }
+    
+    // Getter for position of Apple.
+    public Coordinate apple() {
+        
+        return apple;
+    }
+    
+    // Getter for no. of moves made.
+    public int ticks() {
+        
+        return ticks;
+    }
+    
+    // Whether the game is over.
+    public boolean isOver() {
+        
+        return over;
+    }
+}
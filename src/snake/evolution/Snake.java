@@ -1,8 +1,7 @@
 package snake.evolution;
 
-import java.util.ArrayList;
-import javafx.scene.input.KeyEvent;
 import neat.Genome;
+import neat.NeuralNetwork;
 
 /*
 // Playable character of the game "Snake".
@@ -11,12 +10,32 @@ public class Snake {
     
     // Length constants.
     private final int MIN_SIZE = 2;
-    private final int MAX_SIZE = Game.GRID_AREA;
     
-    // Parts that make up a Snake.
-    private ArrayList<Segment> body = new ArrayList<>(MAX_SIZE);
+    /*
+    // Cells (x * gridLength + y) that make up a Snake, in a
+    // circular buffer. The head is at cells[head] and each
+    // following segment is one index further, wrapping
+    // around, so moving and growing never shift the body.
+    */
+    private int[] cells = new int[0];
+    private int head;
+    
+    // No. of cells along one side of the grid played on.
+    private int gridLength;
+    
     private Genome genome;
     
+    // Decision table of genome, null unless tabulated.
+    private Policy policy;
+    
+    // Network of genome, only built if not tabulated.
+    private NeuralNetwork net;
+    private float[] output = new float[3];
+    
+    // Cells of head and tail before last move, -1 before the first move.
+    private int lastHead = -1;
+    private int lastTail = -1;
+    
     // Direction of travel.
     private int direction;
     
@@ -47,14 +66,55 @@ public class Snake {
         
         this.genome = genome;
         
-        // Adds first segment (head).
-        body.add(new Segment(new Coordinate()));
+        // Runs network over every possible input once.
+        if (Genetics.TABULATE_POLICY)
+            policy = new Policy(genome);
+    }
+    
+    /*
+    // Constructor for a Snake whose Policy was already
+    // tabulated, e.g. along with the rest of its generation.
+    //
+    // @param genome - Snake's DNA, which determines its behaviour.
+    // @param policy - decision table of genome, null to use its network.
+    */
+    public Snake(Genome genome, Policy policy) {
+        
+        this.genome = genome;
+        this.policy = policy;
+    }
+    
+    /*
+    // Place Snake at the start of a new game.
+    //
+    // @param gridLength: no. of cells along one side of the grid
+    // @param head: position of first segment
+    // @param direction: direction of travel, 0-3
+    */
+    public void spawn(int gridLength, Coordinate head, int direction) {
         
-        // Generates a random int between 0-3.
-        direction = (int)Math.floor(Math.random() * 4);
+        this.gridLength = gridLength;
+        this.direction = direction;
+        
+        // Snake can't be longer than the grid has cells.
+        if (cells.length != gridLength * gridLength)
+            cells = new int[gridLength * gridLength];
+        
+        size = MIN_SIZE;
+        foodEaten = 0;
+        score = 0;
+        health = 0;
+        wellFed = true;
+        
+        lastHead = -1;
+        lastTail = -1;
+        
+        // Adds first segment (head).
+        this.head = 0;
+        cells[0] = cell(head.x(), head.y());
         
         // Places next segment in proper orientation.
-        loadBody();
+        loadBody(head.x(), head.y());
     }
     
     /*
@@ -63,38 +123,28 @@ public class Snake {
     // if direction is North, then segment would
     // be South of the Snake's head.
     */
-    private void loadBody() {
-        
-        // References to head.
-        int headX = body.get(0).x();
-        int headY = body.get(0).y();
-        
-        switch(direction) {
-            
-            // North.
-            case 0:
-                
-                body.add(new Segment(new Coordinate(headX, headY + 1)));
-                break;
-            
-            // East.
-            case 1:
-                
-                body.add(new Segment(new Coordinate(headX - 1, headY)));
-                break;
-            
-            // South.
-            case 2:
-                
-                body.add(new Segment(new Coordinate(headX, headY - 1)));
-                break;
-            
-            // West.
-            case 3:
-                
-                body.add(new Segment(new Coordinate(headX + 1, headY)));
-                break;
-        }
+    private void loadBody(int headX, int headY) {
+        
+        cells[1] = cell(headX - Direction.dx(direction), headY - Direction.dy(direction));
+    }
+    
+    /*
+    // Move head forward. Each segment takes the
+    // position of the segment in front of it, which
+    // only means pushing a new head and dropping
+    // the tail.
+    //
+    // @param forward: cell in front of the head
+    */
+    public void move(int forward) {
+        
+        lastHead = cell(0);
+        lastTail = cell(size - 1);
+        
+        // New head goes in front of the old one, taking
+        // the slot of the old tail if the buffer is full.
+        head = head == 0 ? cells.length - 1 : head - 1;
+        cells[head] = forward;
     }
     
     /*
@@ -108,259 +158,90 @@ public class Snake {
         
         wellFed = true;
         
-        // Adds a new Segment at the last position of the tail segment.
-        body.add(new Segment(new Coordinate(body.get(size - 2).lastX(), body.get(size - 2).lastY())));
+        // Adds a new segment at the last position of the tail segment.
+        cells[index(size - 1)] = lastTail;
     }
     
     /*
     // Check if Snake's head is on an Apple.
     //
-    // @param apple: Apple object that is being checked
+    // @param apple: position of Apple being checked
     //
     // @return true if first segment of Snake has same
     // Coordinate as Apple, false otherwise.
     */
-    public Boolean onApple(Apple apple) {
+    public boolean onApple(Coordinate apple) {
         
-        return segment(0).onApple(apple);
+        return cell(0) == cell(apple.x(), apple.y());
     }
     
     /*
-    // Change direction of Snake based on
-    // input from keystroke.
+    // Change direction of Snake.
     //
-    // @param event - Keystroke.
+    // @param action: 1 turns left, 2 turns right,
+    // anything else keeps going forward
     */
-    public void changePath(KeyEvent event) {
+    public void turn(int action) {
         
-        switch (event.getCode()) {
-
-            // If left arrow key was pressed,
-            // changes direction from north to
-            // west etc.
-            case LEFT:
-                
-                if (direction - 1 < 0)
-                    direction = 3;
-                
-                else
-                    direction -= 1;
-                
-                break;
-                
-            // If right arrow key was pressed,
-            // changes direction from north to
-            // east etc.
-            case RIGHT:
-
-                if (direction + 1 > 3)
-                    direction = 0;
-
-                else
-                    direction += 1;
-
-                break;
-        }
+        direction = Direction.turn(direction, action);
     }
     
     /*
-    // Find next Coordinate based on orientation
-    // and position of Snake head.
+    // Decide which way to turn.
     //
-    // @param orientation: direction from Snake
-    // head that's being checked
-    // 
-    // @return Coordinate of Tile at the direction
-    // being checked
+    // @param input[]: array created by processInput()
+    //
+    // @return Index of largest output of the network.
     */
-    public Coordinate next(String orientation) {
+    public int decide(float input[]) {
         
-        // Reference to head.
-        Segment head = segment(0);
+        if (policy != null)
+            return policy.action(input);
         
-        switch (orientation) {
-            
-            // If checking forwards...
-            case "Forward":
-            
-                switch (direction) {
-
-                    case 0: return new Coordinate(head.x(), head.y() - 1);
-
-                    case 1: return new Coordinate(head.x() + 1, head.y());
-
-                    case 2: return new Coordinate(head.x(), head.y() + 1);
-
-                    case 3: return new Coordinate(head.x() - 1, head.y());
-                }
-            
-            // If checking to the left...
-            case "Left":
-            
-                switch (direction) {
-
-                    case 0: return new Coordinate(head.x() - 1, head.y());
-
-                    case 1: return new Coordinate(head.x(), head.y() - 1);
-
-                    case 2: return new Coordinate(head.x() + 1, head.y());
-
-                    case 3: return new Coordinate(head.x(), head.y() + 1);
-                }
-            
-            // If checking to the right...
-            case "Right":
-            
-                switch (direction) {
-
-                    case 0: return new Coordinate(head.x() + 1, head.y());
-
-                    case 1: return new Coordinate(head.x(), head.y() + 1);
-
-                    case 2: return new Coordinate(head.x() - 1, head.y());
-
-                    case 3: return new Coordinate(head.x(), head.y() - 1);
-                }
-            
-            default:
-                return null;
-        }
+        if (net == null)
+            net = new NeuralNetwork(genome);
+        
+        return Genetics.largest(net.calculate(input, output));
     }
     
-    /*
-    // Check if there's an Apple in a certain
-    // direction from the head.
-    //
-    // @param apple: Apple being checked for
-    // @param orientation: Direction of check
-    //
-    // @return true is Apple is in that direction,
-    // false otherwise
-    */
-    public boolean has(Apple apple, String orientation) {
-        
-        // Reference to head.
-        Segment head = segment(0);
-        
-        switch (orientation) {
-            
-            // If checking forward...
-            case "Forward":
-                
-                switch (direction) {
-                    
-                    case 0: return head.x() == apple.x() && head.y() > apple.y();
-                        
-                    case 1: return head.y() == apple.y() && head.x() > apple.x();
-                    
-                    case 2: return head.x() == apple.x() && head.y() < apple.y();
-                    
-                    case 3: return head.y() == apple.y() && head.x() < apple.x();
-                }
-            
-            // If checking to left...
-            case "Left":
-                
-                switch (direction) {
-                    
-                    case 0: return head.y() == apple.y() && head.x() > apple.x();
-                    
-                    case 1: return head.x() == apple.x() && head.y() > apple.y();
-                    
-                    case 2: return head.y() == apple.y() && head.x() < apple.x();
-                    
-                    case 3: return head.x() == apple.x() && head.y() < apple.y();
-                }
-            
-            // If checking to right...
-            case "Right":
-                
-                switch (direction) {
-                    
-                    case 0: return head.x() == apple.x() && head.x() < apple.x();
-                    
-                    case 1: return head.y() == apple.y() && head.y() < apple.y();
-                    
-                    case 2: return head.x() == apple.x() && head.x() > apple.x();
-                    
-                    case 3: return head.y() == apple.y() && head.y() > apple.y();
-                }
-            
-            // Default case prints error message to console.
-            default:
-                System.out.println("ERROR: DEFAULT CASE REPORTED.");
-                return false;
-        }
+    // Converts a position to its cell index, as in Board.cell().
+    private int cell(int x, int y) {
+        
+        return x * gridLength + y;
     }
     
-    /*
-    // Calculate angle from Snake head
-    // to Apple.
-    //
-    // @param apple: Apple being referenced
-    //
-    // @return - Calculated angle.
-    */
-    public double angleToApple(Apple apple) {
-        
-        // Reference to head.
-        Segment head = segment(0);
-        
-        // More than 180 degrees would flip right to left and vice versa.
-        double maxAngle = 180;
-        
-        // Settings radians to return value of atan2().
-        double radians = Math.atan2(apple.y() - head.y(), apple.x() - head.x());
-        
-        // Converting radians to degrees ( atan() returns value in radians).
-        double degrees = Math.toDegrees(radians);
-        
-        // Adding 90 degrees since angle needs to be referenced from North axis.
-        double angle = degrees + 90;
-        
-        // Making sure angle isn't greater than 180.
-        if (angle > maxAngle)
-            angle = angle - 360;
-        
-        // Adds degrees to account for direction
-        // of travel of Snake.
-        switch (direction) {
-            
-            // East
-            case 1:
-                angle += 270;
-                break;
-            
-            // South
-            case 2:
-                angle += 180;
-                break;
-            
-            // West
-            case 3:
-                angle += 90;
-                break;
-            
-            default: break;
-        }
-
-        // Making sure angle isn't greater than 180, after switch statement.
-        if (angle > maxAngle)
-            angle = angle - 360;
+    // Index in cells[] of a segment, 0 being the head.
+    private int index(int segment) {
+        
+        int i = head + segment;
+        
+        return i < cells.length ? i : i - cells.length;
+    }
+    
+    // Getter for cell of a segment, 0 being the head.
+    public int cell(int segment) {
         
-        return angle;
+        return cells[index(segment)];
     }
     
-    // Getter for body.
-    public ArrayList<Segment> body() {
+    // Getter for position of a segment, e.g. for display.
+    public Coordinate segment(int segment) {
         
-        return body;
+        int cell = cell(segment);
+        
+        return new Coordinate(cell / gridLength, cell % gridLength);
     }
     
-    // Getter for element in body.
-    public Segment segment(int index) {
+    // Getter for cell of head before last move.
+    public int lastHead() {
         
-        return body.get(index);
+        return lastHead;
+    }
+    
+    // Getter for cell of tail before last move.
+    public int lastTail() {
+        
+        return lastTail;
     }
     
     // Getter for score.
@@ -397,22 +278,24 @@ public class Snake {
         return fitness;
     }
     
+    // Sets fitness without playing, e.g. from a cached
+    // game, and updates genome fitness to that value.
+    public void setFitness(int value) {
+        
+        fitness = value;
+        genome.fitness = fitness;
+    }
+    
     // Calculates fitness and updates genome fitness
     // to that value. Also returns value.
     public int calcFitness() {
- 
+        
         fitness = foodEaten * 10 + health;
         genome.fitness = fitness;
         
         return fitness;
     }
     
-    // Whether segment is out of grid.
-    public boolean outOfBounds() {
-        
-        return segment(0).outOfBounds();
-    }
-    
     // Getter for size.
     public int size() {
         
@@ -431,6 +314,12 @@ public class Snake {
         return genome;
     }
     
+    // Getter for policy.
+    public Policy policy() {
+        
+        return policy;
+    }
+    
     // Getter for wellFed.
     public boolean wellFed() {
         
@@ -442,4 +331,4 @@ public class Snake {
         
         wellFed = fed;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package snake.evolution;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+// From NEAT package.
+// IMPORTANT: Credit for NEAT algorithm code goes to "hydrozoa".
+// Code retrieved from https://github.com/hydrozoa-yt/hydroneat
+*/
+import neat.Evaluator;
+
+/*
+// Evolves Snakes without displaying them. Needs no
+// JavaFX, so it runs on a headless machine. The
+// Snakes of a generation are played concurrently.
+//
+// Usage: java -cp ViperIO.jar snake.evolution.Trainer [generations] [threads]
+//
+// The Snakes played per second at the end measure
+// throughput, e.g. of the activation functions, set
+// with -Dneat.activation=EXACT|LOOKUP|POLYNOMIAL.
+*/
+public class Trainer {
+    
+    public static void main(String[] args) {
+        
+        int generations = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        
+        Random r = new Random();
+        
+        // One thread plays the Snakes one by one.
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        
+        Evaluator evaluator = Genetics.loadGenetics(r, pool);
+        
+        long start = System.nanoTime();
+        
+        for (int gen = 1; gen <= generations; gen++) {
+            
+            // Play every Snake of the generation to the end,
+            // then breed the next one.
+            evaluator.evaluateGeneration(r);
+            
+            System.out.println("Generation " + gen + " best fitness: " + (int)evaluator.getFittestGenome().fitness);
+        }
+        
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        System.out.println("Played " + generations * Genetics.GEN_SIZE + " Snakes in " + String.format("%.1f", seconds) + " s, "
+                + (int)(generations * Genetics.GEN_SIZE / seconds) + " Snakes/s");
+        
+        if (pool != null)
+            pool.shutdown();
+    }
+}
@@ -0,0 +1,60 @@
+package neat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The approximations of the sigmoid must stay within their documented error of EXACT, swept finely over
+ * [-20, 20] and at the infinities, and must pass NaN on.
+ *
+ * @author hydrozoa
+ */
+public class ActivationTest {
+
+	private static final float RANGE = 20f;
+	private static final int STEPS = 4000000;		// a step of 1e-5
+
+	@Test
+	public void lookupIsWithinBound() {
+		assertMaxError(Activation.LOOKUP, 5e-6);
+	}
+
+	@Test
+	public void polynomialIsWithinBound() {
+		assertMaxError(Activation.POLYNOMIAL, 2e-7);
+	}
+
+	@Test
+	public void nanGivesNaN() {
+		for (Activation activation : Activation.values()) {
+			assertTrue(activation.toString(), Float.isNaN(activation.apply(Float.NaN)));
+		}
+	}
+
+	@Test
+	public void parseFallsBackToExact() {
+		assertEquals(Activation.EXACT, Activation.parse(null));
+		assertEquals(Activation.LOOKUP, Activation.parse("LOOKUP"));
+		assertEquals(Activation.POLYNOMIAL, Activation.parse(" polynomial"));
+		assertEquals(Activation.EXACT, Activation.parse("LOKUP"));
+	}
+
+	private static void assertMaxError(Activation activation, double bound) {
+		double maxError = 0;
+		float worst = 0;
+		for (int i = 0; i <= STEPS; i++) {
+			float in = -RANGE + 2*RANGE*i/STEPS;
+			double error = Math.abs(activation.apply(in) - Activation.EXACT.apply(in));
+			if (error > maxError) {
+				maxError = error;
+				worst = in;
+			}
+		}
+		assertTrue(activation + " is off by " + maxError + " at " + worst, maxError <= bound);
+
+		assertEquals(activation + " at +Infinity", Activation.EXACT.apply(Float.POSITIVE_INFINITY), activation.apply(Float.POSITIVE_INFINITY), bound);
+		assertEquals(activation + " at -Infinity", Activation.EXACT.apply(Float.NEGATIVE_INFINITY), activation.apply(Float.NEGATIVE_INFINITY), bound);
+	}
+}
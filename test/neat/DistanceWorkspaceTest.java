@@ -0,0 +1,84 @@
+package neat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Genome comparisons from many threads at once, each relying on the per-thread workspace, must give the same
+ * results as comparing the genomes on a single thread.
+ * 
+ * @author hydrozoa
+ */
+public class DistanceWorkspaceTest {
+	
+	private static final int THREADS = 8;
+	private static final int PAIRS = 2000;
+	private static final int REPEATS = 20;
+	
+	@Test
+	public void concurrentComparisonsMatchSingleThreaded() throws Exception {
+		Random r = new Random(12);
+		List<Genome> genomes = TestGenomes.evolve(r, 100, 40);
+		
+		Genome[] first = new Genome[PAIRS];
+		Genome[] second = new Genome[PAIRS];
+		float[] distances = new float[PAIRS];
+		int[] excess = new int[PAIRS];
+		float[] weightDifferences = new float[PAIRS];
+		for (int i = 0; i < PAIRS; i++) {
+			first[i] = genomes.get(r.nextInt(genomes.size()));
+			second[i] = genomes.get(r.nextInt(genomes.size()));
+			distances[i] = Genome.compatibilityDistance(first[i], second[i], 1f, 1f, 0.4f);
+			excess[i] = Genome.countExcessGenes(first[i], second[i]);
+			weightDifferences[i] = Genome.averageWeightDiff(first[i], second[i]);
+		}
+		
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<String>>> results = new ArrayList<>();
+		try {
+			for (int t = 0; t < THREADS; t++) {
+				int offset = t * PAIRS / THREADS;
+				Callable<List<String>> compare = () -> {
+					List<String> mismatches = new ArrayList<>();
+					start.await();
+					for (int repeat = 0; repeat < REPEATS; repeat++) {
+						for (int k = 0; k < PAIRS; k++) {
+							// each thread starts at another pair, so different comparisons overlap
+							int i = (offset + k) % PAIRS;
+							float distance = Genome.compatibilityDistance(first[i], second[i], 1f, 1f, 0.4f);
+							int excessGenes = Genome.countExcessGenes(first[i], second[i]);
+							float weightDifference = Genome.averageWeightDiff(first[i], second[i]);
+							if (Float.floatToIntBits(distance) != Float.floatToIntBits(distances[i])
+									|| excessGenes != excess[i]
+									|| Float.floatToIntBits(weightDifference) != Float.floatToIntBits(weightDifferences[i])) {
+								mismatches.add("pair " + i + ": " + distance + " instead of " + distances[i]);
+							}
+						}
+					}
+					return mismatches;
+				};
+				results.add(threads.submit(compare));
+			}
+			start.countDown();
+			
+			List<String> mismatches = new ArrayList<>();
+			for (Future<List<String>> result : results) {
+				mismatches.addAll(result.get());
+			}
+			assertEquals("comparisons differing from single-threaded ones", new ArrayList<String>(), mismatches);
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package neat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * A batch of genomes with mixed topologies must give the same outputs as each genome's own network, bit for bit.
+ *
+ * @author hydrozoa
+ */
+public class NetworkBatchTest {
+
+	@Test
+	public void mixedTopologiesMatchNetworks() {
+		Random r = new Random(31);
+		List<Genome> genomes = TestGenomes.evolve(r, 120, 40);
+		for (Activation activation : Activation.values()) {
+			NetworkBatch batch = new NetworkBatch(genomes, activation);
+			// some genomes share a topology, and others don't
+			assertTrue(batch.getGroupCount() > 1);
+			assertTrue(batch.getGroupCount() < genomes.size());
+			assertBatchMatches(batch, genomes, activation, r);
+		}
+	}
+
+	@Test
+	public void cachedNetworksMatchNetworks() {
+		Random r = new Random(33);
+		List<Genome> genomes = TestGenomes.evolve(r, 60, 30);
+		NetworkCache cache = new NetworkCache(64);
+		assertBatchMatches(new NetworkBatch(genomes, cache), genomes, Activation.DEFAULT, r);
+
+		// the next generation keeps some genomes, and only changes the weights of others
+		List<Genome> next = new ArrayList<>();
+		for (int i = 0; i < genomes.size(); i++) {
+			Genome genome = new Genome(genomes.get(i));
+			if (i % 2 == 0) {
+				genome.mutation(0.9f, r);
+			}
+			next.add(genome);
+		}
+		int built = cache.getMisses();
+		assertBatchMatches(new NetworkBatch(next, cache), next, Activation.DEFAULT, r);
+		assertEquals(built, cache.getMisses());
+		assertTrue(cache.getHits() + cache.getPatches() > 0);
+	}
+
+	@Test
+	public void unsolvableNetworkGivesNaN() {
+		Random r = new Random(32);
+		List<Genome> genomes = new ArrayList<>(TestGenomes.evolve(r, 10, 10));
+
+		// two hidden nodes feeding each other never get all their inputs
+		Genome cyclic = new Genome(genomes.get(0));
+		int first = 1000;
+		int second = 1001;
+		int innovation = 100000;
+		cyclic.addNodeGene(new NodeGene(NodeGene.TYPE.HIDDEN, first));
+		cyclic.addNodeGene(new NodeGene(NodeGene.TYPE.HIDDEN, second));
+		cyclic.addConnectionGene(new ConnectionGene(0, first, 0.5f, true, innovation++));
+		cyclic.addConnectionGene(new ConnectionGene(first, second, 0.5f, true, innovation++));
+		cyclic.addConnectionGene(new ConnectionGene(second, first, 0.5f, true, innovation++));
+		cyclic.addConnectionGene(new ConnectionGene(second, TestGenomes.INPUTS, 0.5f, true, innovation++));
+		genomes.add(3, cyclic);
+
+		assertNull(new NeuralNetwork(cyclic).calculate(new float[TestGenomes.INPUTS]));
+		assertBatchMatches(new NetworkBatch(genomes), genomes, Activation.DEFAULT, r);
+	}
+
+	private static void assertBatchMatches(NetworkBatch batch, List<Genome> genomes, Activation activation, Random r) {
+		float[] inputs = TestGenomes.randomInputs(r, genomes.size());
+		float[] outputs = batch.calculate(inputs);
+
+		float[] input = new float[TestGenomes.INPUTS];
+		for (int i = 0; i < genomes.size(); i++) {
+			System.arraycopy(inputs, i * input.length, input, 0, input.length);
+			float[] expected = new NeuralNetwork(genomes.get(i), activation).calculate(input);
+			for (int o = 0; o < TestGenomes.OUTPUTS; o++) {
+				float actual = outputs[i * TestGenomes.OUTPUTS + o];
+				if (expected == null) {
+					assertTrue(activation + " genome " + i + " output " + o + " should be NaN", Float.isNaN(actual));
+				} else {
+					assertEquals(activation + " genome " + i + " output " + o, Float.floatToIntBits(expected[o]), Float.floatToIntBits(actual));
+				}
+			}
+		}
+	}
+}
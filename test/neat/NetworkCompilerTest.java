@@ -0,0 +1,133 @@
+package neat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compiled networks must give the same outputs as the array-based calculation, bit for bit, with every activation
+ * function. Large networks need the wide forms of the instructions, for locals beyond 255 and constants beyond
+ * the 255th entry of the constant pool.
+ *
+ * @author hydrozoa
+ */
+public class NetworkCompilerTest {
+
+	private static final int ROWS = 200;
+
+	@Test
+	public void evolvedNetworksMatchArrays() {
+		Random r = new Random(22);
+		List<Genome> genomes = TestGenomes.evolve(r, 60, 40);
+		for (Activation activation : Activation.values()) {
+			for (Genome genome : genomes) {
+				assertCompiledMatches(genome, activation, r);
+			}
+		}
+	}
+
+	@Test
+	public void networkWithMoreThan256Locals() {
+		// neurons are locals, and hidden neurons without inputs come right after the inputs, so the
+		// connected ones at the end and the output they feed are beyond local 255
+		int inputs = 6;
+		int hidden = 250;
+		int connected = 20;
+		Random r = new Random(23);
+		Counter connectionInnovation = new Counter();
+		Genome genome = new Genome();
+		for (int i = 0; i < inputs; i++) {
+			genome.addNodeGene(new NodeGene(NodeGene.TYPE.INPUT, i));
+		}
+		genome.addNodeGene(new NodeGene(NodeGene.TYPE.OUTPUT, inputs));
+		for (int h = 0; h < hidden; h++) {
+			genome.addNodeGene(new NodeGene(NodeGene.TYPE.HIDDEN, inputs + 1 + h));
+		}
+		for (int h = hidden - connected; h < hidden; h++) {
+			int id = inputs + 1 + h;
+			genome.addConnectionGene(new ConnectionGene(h % inputs, id, r.nextFloat()*2f-1f, true, connectionInnovation.getInnovation()));
+			genome.addConnectionGene(new ConnectionGene(id, inputs, r.nextFloat()*2f-1f, true, connectionInnovation.getInnovation()));
+		}
+
+		for (Activation activation : Activation.values()) {
+			assertCompiledMatches(genome, activation, r);
+		}
+	}
+
+	@Test
+	public void networkWithMoreThan256Constants() {
+		// every weight is a constant of its own
+		int inputs = 20;
+		int outputs = 15;
+		Random r = new Random(24);
+		Counter connectionInnovation = new Counter();
+		Genome genome = new Genome();
+		for (int i = 0; i < inputs + outputs; i++) {
+			genome.addNodeGene(new NodeGene(i < inputs ? NodeGene.TYPE.INPUT : NodeGene.TYPE.OUTPUT, i));
+		}
+		for (int i = 0; i < inputs; i++) {
+			for (int o = inputs; o < inputs + outputs; o++) {
+				genome.addConnectionGene(new ConnectionGene(i, o, r.nextFloat()*2f-1f, true, connectionInnovation.getInnovation()));
+			}
+		}
+
+		for (Activation activation : Activation.values()) {
+			assertCompiledMatches(genome, activation, r);
+		}
+	}
+
+	@Test
+	public void calculationsAfterThresholdMatch() {
+		Random r = new Random(25);
+		Genome genome = TestGenomes.evolve(r, 10, 30).get(0);
+		float[] inputs = TestGenomes.randomInputs(r, ROWS);
+		float[][] expected = calculateAll(new NeuralNetwork(genome), inputs, TestGenomes.INPUTS);
+
+		NeuralNetwork network = new NeuralNetwork(genome);
+		float[] input = new float[TestGenomes.INPUTS];
+		float[] output = new float[network.getOutputCount()];
+		for (int k = 0; k < NeuralNetwork.COMPILE_THRESHOLD + ROWS; k++) {
+			int row = k % ROWS;
+			System.arraycopy(inputs, row * input.length, input, 0, input.length);
+			network.calculate(input, output);
+			assertBitsEqual("calculation " + k, expected[row], output);
+		}
+	}
+
+	private static void assertCompiledMatches(Genome genome, Activation activation, Random r) {
+		int inputCount = new NeuralNetwork(genome, activation).getInputCount();
+		float[] inputs = new float[ROWS * inputCount];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i] = (float)(r.nextGaussian() * 3);
+		}
+
+		NeuralNetwork compiled = new NeuralNetwork(genome, activation);
+		assertTrue(activation + " network should compile", compiled.compile());
+		float[][] expected = calculateAll(new NeuralNetwork(genome, activation), inputs, inputCount);
+		float[][] actual = calculateAll(compiled, inputs, inputCount);
+		for (int row = 0; row < ROWS; row++) {
+			assertBitsEqual(activation + " row " + row, expected[row], actual[row]);
+		}
+	}
+
+	private static float[][] calculateAll(NeuralNetwork network, float[] inputs, int inputCount) {
+		float[][] outputs = new float[inputs.length / inputCount][];
+		float[] input = new float[inputCount];
+		for (int row = 0; row < outputs.length; row++) {
+			System.arraycopy(inputs, row * inputCount, input, 0, inputCount);
+			outputs[row] = network.calculate(input);
+		}
+		return outputs;
+	}
+
+	private static void assertBitsEqual(String message, float[] expected, float[] actual) {
+		assertEquals(message, expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(message + " output " + i, Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+		}
+	}
+}
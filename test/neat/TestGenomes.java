@@ -0,0 +1,78 @@
+package neat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Genomes for tests, evolved from the genesis genome of the snake game by random crossover and mutation.
+ * 
+ * @author hydrozoa
+ */
+class TestGenomes {
+	
+	static final int INPUTS = 6;
+	static final int OUTPUTS = 3;
+	
+	/**
+	 * @param count		no. of genomes
+	 * @param rounds	no. of times the genomes are bred, each round adding structure
+	 */
+	static List<Genome> evolve(Random r, int count, int rounds) {
+		Counter nodeInnovation = new Counter();
+		Counter connectionInnovation = new Counter();
+		
+		Genome genesis = new Genome();
+		for (int i = 0; i < INPUTS; i++) {
+			genesis.addNodeGene(new NodeGene(NodeGene.TYPE.INPUT, nodeInnovation.getInnovation()));
+		}
+		for (int i = 0; i < OUTPUTS; i++) {
+			genesis.addNodeGene(new NodeGene(NodeGene.TYPE.OUTPUT, nodeInnovation.getInnovation()));
+		}
+		for (int i = 0; i < INPUTS; i++) {
+			for (int j = INPUTS; j < INPUTS + OUTPUTS; j++) {
+				genesis.addConnectionGene(new ConnectionGene(i, j, 1f, true, connectionInnovation.getInnovation()));
+			}
+		}
+		
+		List<Genome> genomes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Genome genome = new Genome(genesis);
+			genome.mutation(0f, r);
+			genomes.add(genome);
+		}
+		
+		for (int round = 0; round < rounds; round++) {
+			InnovationRegistry innovations = new InnovationRegistry(nodeInnovation, connectionInnovation);
+			List<Genome> children = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				Genome parent1 = genomes.get(r.nextInt(count));
+				Genome parent2 = genomes.get(r.nextInt(count));
+				Genome child = r.nextBoolean() ? Genome.crossover(parent1, parent2, r, 0.75f) : new Genome(parent1);
+				if (r.nextFloat() < 0.8f) {
+					child.mutation(0.9f, r);
+				}
+				if (r.nextFloat() < 0.3f) {
+					child.addConnectionMutation(r, innovations);
+				}
+				if (r.nextFloat() < 0.2f) {
+					child.addNodeMutation(r, innovations);
+				}
+				children.add(child);
+			}
+			genomes = children;
+		}
+		return genomes;
+	}
+	
+	/**
+	 * @return	one row of random inputs per network
+	 */
+	static float[] randomInputs(Random r, int rows) {
+		float[] inputs = new float[rows * INPUTS];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i] = (float)(r.nextGaussian() * 3);
+		}
+		return inputs;
+	}
+}
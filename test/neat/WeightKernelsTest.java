@@ -0,0 +1,83 @@
+package neat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The block kernels must agree with their scalar references: weight mutation bit for bit, given the same random
+ * numbers, and sums of differences up to the rounding of summing in another order. Lengths include ones shorter
+ * than the four partial sums and ones that aren't a multiple of a block.
+ *
+ * @author hydrozoa
+ */
+public class WeightKernelsTest {
+
+	private static final int[] LENGTHS = { 0, 1, 2, 3, 4, 5, 7, 100, WeightKernels.BLOCK - 1, WeightKernels.BLOCK, WeightKernels.BLOCK + 1, 1000 };
+	private static final float[] PERTURBING = { 0f, 0.5f, 0.9f };
+
+	@Test
+	public void mutateMatchesMutated() {
+		for (int length : LENGTHS) {
+			for (float perturbing : PERTURBING) {
+				Random weightRandom = new Random(length);
+				int offset = 3;
+				float[] weights = new float[offset + length];
+				for (int i = 0; i < weights.length; i++) {
+					weights[i] = (float)(weightRandom.nextGaussian() * 2);
+				}
+				float[] expected = weights.clone();
+
+				// both draw their random numbers from the same stream, a block at a time
+				Random kernelRandom = new Random(7);
+				Random scalarRandom = new Random(7);
+				float[] uniform = new float[WeightKernels.BLOCK];
+				float[] gaussian = new float[WeightKernels.BLOCK];
+				for (int done = 0; done < length; done += WeightKernels.BLOCK) {
+					int count = Math.min(WeightKernels.BLOCK, length - done);
+					WeightKernels.fill(kernelRandom, uniform, gaussian, count);
+					WeightKernels.mutate(weights, offset + done, uniform, gaussian, count, perturbing);
+
+					WeightKernels.fill(scalarRandom, uniform, gaussian, count);
+					for (int i = 0; i < count; i++) {
+						int w = offset + done + i;
+						expected[w] = WeightKernels.mutated(expected[w], uniform[i], gaussian[i], perturbing);
+					}
+				}
+
+				for (int i = 0; i < weights.length; i++) {
+					assertEquals("length " + length + " perturbing " + perturbing + " weight " + i,
+							Float.floatToIntBits(expected[i]), Float.floatToIntBits(weights[i]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void sumOfDifferencesMatchesSumInOrder() {
+		Random r = new Random(8);
+		for (int length : LENGTHS) {
+			for (int repeat = 0; repeat < 20; repeat++) {
+				float[] weights1 = new float[length];
+				float[] weights2 = new float[length];
+				for (int i = 0; i < length; i++) {
+					weights1[i] = (float)(r.nextGaussian() * 2);
+					weights2[i] = (float)(r.nextGaussian() * 2);
+				}
+
+				float expected = WeightKernels.sumOfDifferencesInOrder(weights1, weights2, length);
+				float actual = WeightKernels.sumOfDifferences(weights1, weights2, length);
+				if (length < 4) {
+					// only the first partial sum is used, in order
+					assertEquals("length " + length, Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+				} else {
+					// either order rounds each of the additions by at most half a step
+					float tolerance = length * Math.ulp(1f) * expected;
+					assertEquals("length " + length, expected, actual, tolerance);
+				}
+			}
+		}
+	}
+}